@@ -4,8 +4,32 @@
  */
 package app;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * ===============================================================
@@ -20,24 +44,63 @@ import java.util.*;
  *
  *  CARACTERÍSTICAS:
  *    - Arreglos: Cliente[], Venta[] (crecimiento dinámico).
- *    - Lista: Eventos (cada evento contiene sus ventas).
+ *    - Lista: Eventos (cada evento contiene sus ventas, su ocupación
+ *      como bitset y un historial consultable por fecha/hora).
+ *    - Series de funciones: comparten un PlanoEvento inmutable
+ *      (geometría + precio) y solo guardan su propia ocupación.
  *    - Asientos con etiquetas "A1", "B3", etc. y también por ID.
- *    - Descuentos: 10% (ESTUDIANTE) y 15% (TERCERA_EDAD).
+ *    - Descuentos: 10% (ESTUDIANTE) y 15% (TERCERA_EDAD) por defecto,
+ *      más reglas declarativas (promo, grupo, preventa, socio)
+ *      compiladas por evento a una tabla de precios.
+ *    - Montos en centavos (long): sin deriva de punto flotante;
+ *      solo se formatean al mostrarlos.
  *    - Límite por venta: 6 asientos; control de stock y
  *      verificación de invariante (no duplicidad de ocupación).
+ *    - Límite opcional de asientos por cliente y evento, sumando
+ *      todas sus compras (contador O(1) por par evento/cliente).
  *    - Visual ASCII puro. Colores ANSI opcionales 
+ *    - Mapa de calor por butaca (tasa de venta en la temporada),
+ *      con contadores que se actualizan en cada venta y anulación.
+ *    - Feed de cambios de asientos (buffer circular) para pantallas
+ *      en vivo: cada lector avanza a su ritmo sin frenar las ventas.
+ *    - Salas grandes (-Dteatro.sala=FxC, filas A..ZZ): vista por ventana
+ *      (filas/columnas desplazables) y resumen por bloques con libres.
+ *    - Búsqueda en todo el catálogo de funciones con N asientos juntos
+ *      bajo un precio, usando el resumen por evento (sin leer asientos).
+ *    - Funciones ya realizadas se archivan en forma columnar de solo
+ *      lectura; reportes y búsquedas de ventas las siguen incluyendo.
+ *    - Precios dinámicos opcionales: escalones por ocupación (ej. 50/75/90%)
+ *      y recargo por fila; lo cotizado es lo cobrado o la venta se rechaza.
+ *    - Zonas con nombre (Platea, Balcón, VIP) por evento, con precio
+ *      propio y contadores de libres por zona actualizados en cada venta.
+ *    - Carrito con asientos de varias funciones: al confirmar solo se
+ *      revalidan los eventos cuya versión cambió y se cobra todo o nada.
  *
  *  NOTAS DE USO:
- *    - Menú principal muestra opciones 1..6 y 0. La tecla "7"
- *      (no visible) alterna colores ANSI ON/OFF.
+ *    - Menú principal muestra opciones 1..6, C (carrito) y 0. La tecla
+ *      "7" (no visible) alterna colores ANSI ON/OFF.
  *    - Si tu consola no soporta acentos, compila/ejecuta con
  *      -Dfile.encoding=UTF-8 o mantén solo ASCII en mensajes.
+ *    - Varias cajas (JVM) en un mismo equipo comparten inventario
+ *      con -Dteatro.inventario=/ruta/archivo (archivo mapeado, hasta
+ *      1024 eventos; crear más eventos se rechaza).
+ *    - Las entradas imprimibles se generan en segundo plano solo si se
+ *      indica una carpeta con -Dteatro.tickets=ruta (por defecto, no).
  *
  *  ESTRUCTURA:
  *    - MainTeatroMoro: punto de entrada + menús (UI consola).
  *    - TeatroMoroCore: lógica de negocio (eventos/ventas/clientes).
- *    - Modelos: Cliente, Asiento, Venta, Evento.
- *    - Servicios: DescuentoService (descuentos), Check (validaciones).
+ *    - Modelos: Cliente, Asiento, Venta, Carrito, PlanoEvento, Zona/MapaZonas,
+ *      Evento, EventoArchivado, HistorialEvento, ReglaDescuento.
+ *    - Servicios: Dinero (montos), DescuentoService (descuentos),
+ *      PreciosDinamicos (escalones por ocupación y recargo por fila),
+ *      MotorDescuentos/TablaPrecios (reglas), IndiceVentas (búsquedas
+ *      por cliente y por fecha), Check (validaciones),
+ *      InventarioCompartido (asientos entre procesos),
+ *      SalaEspera (fila virtual y control de admisión por evento),
+ *      EmisorTickets (entradas en archivos, fuera del camino de venta),
+ *      UbicadorGrupos (mejor bloque de asientos para un grupo),
+ *      FeedAsientos (cambios de asientos para suscriptores).
  * ===============================================================
  */
 public class MainTeatroMoro {
@@ -50,6 +113,12 @@ public class MainTeatroMoro {
     /** Límite de asientos que se pueden vender en una sola operación. */
     private static final int MAX_ASIENTOS_POR_VENTA = 6;
 
+    /** Tope de la sala: filas rotulables con una o dos letras (A..ZZ) y asientos totales. */
+    private static final int MAX_FILAS_SALA = 702, MAX_COLUMNAS_SALA = 999, MAX_ASIENTOS_SALA = 100_000;
+
+    /** Eventos que admite el archivo de inventario compartido (crear más se rechaza). */
+    private static final int MAX_EVENTOS_INVENTARIO = 1024;
+
     /** Lector estándar para todas las entradas de usuario. */
     private static final Scanner SC = new Scanner(System.in);
 
@@ -59,6 +128,12 @@ public class MainTeatroMoro {
     /** Tipos de cliente válidos (determinan el descuento aplicado). */
     enum TipoCliente { GENERAL, ESTUDIANTE, TERCERA_EDAD }
 
+    /** Niveles del programa de socios (pueden otorgar descuento). */
+    enum NivelSocio { NINGUNO, PLATA, ORO }
+
+    /** Clases de regla de descuento admitidas por el motor. */
+    enum TipoRegla { TIPO_CLIENTE, SOCIO, GRUPO, PREVENTA, CODIGO_PROMO }
+
     /**
      * Representa un cliente con identificación, nombre y tipo.
      * Usado en ventas para aplicar descuentos y trazabilidad.
@@ -67,6 +142,7 @@ public class MainTeatroMoro {
         private final int id;
         private String nombre;
         private TipoCliente tipo;
+        private NivelSocio nivel = NivelSocio.NINGUNO;
 
         Cliente(int id, String nombre, TipoCliente tipo) {
             this.id = id;
@@ -79,10 +155,13 @@ public class MainTeatroMoro {
         void setNombre(String n) { this.nombre = n; }
         TipoCliente getTipo() { return tipo; }
         void setTipo(TipoCliente t) { this.tipo = t; }
+        NivelSocio getNivel() { return nivel; }
+        void setNivel(NivelSocio n) { this.nivel = n; }
 
         @Override
         public String toString() {
-            return "Cliente{id=" + id + ", nombre='" + nombre + "', tipo=" + tipo + "}";
+            return "Cliente{id=" + id + ", nombre='" + nombre + "', tipo=" + tipo +
+                   ", socio=" + nivel + "}";
         }
     }
 
@@ -111,361 +190,2472 @@ public class MainTeatroMoro {
     /**
      * Transacción de compra: asocia cliente y evento con un conjunto
      * de asientos, incluyendo montos (bruto, descuento, neto) y fecha.
+     * Los montos se guardan en centavos. Forma compacta: la fecha en
+     * milisegundos (long), el neto se deriva y los asientos crecientes a
+     * menos de 64 IDs del primero (lo normal: contiguos en una fila) se
+     * guardan como primer ID + máscara de bits; el resto, como arreglo.
+     * Dos ventas del mismo milisegundo se ordenan por ID.
      */
     static class Venta {
+        /** Origen de los milisegundos guardados (2020-01-01 UTC). */
+        private static final long EPOCA_MS = LocalDateTime.of(2020, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC) * 1000;
+
         private final int id, eventoId, clienteId;
-        private final int[] asientosIds;
-        private final LocalDateTime fecha;
-        private final double bruto, desc, neto;
+        private final long milis;              // fecha: milisegundos desde EPOCA_MS
+        private final int primero;             // menor asiento (forma compacta)
+        private final long mascara;            // bit k = asiento primero + k
+        private final int[] dispersos;         // null = forma compacta
+        private final long bruto, desc;
 
         Venta(int id, int eventoId, int clienteId, int[] asientosIds,
-              LocalDateTime fecha, double bruto, double desc, double neto) {
+              LocalDateTime fecha, long bruto, long desc, long neto) {
+            long seg = fecha.toEpochSecond(ZoneOffset.UTC);
+            Check.require(Math.abs(seg) <= Long.MAX_VALUE / 2_000, "Fecha fuera de rango: " + fecha);
+            Check.require(neto == bruto - desc, "Neto distinto de bruto - descuento");
             this.id = id;
             this.eventoId = eventoId;
             this.clienteId = clienteId;
-            this.asientosIds = asientosIds;
-            this.fecha = fecha;
+            this.milis = seg * 1000 + fecha.getNano() / 1_000_000 - EPOCA_MS;
             this.bruto = bruto;
             this.desc = desc;
-            this.neto = neto;
+            if (compactable(asientosIds)) {
+                long m = 0;
+                for (int a : asientosIds) m |= 1L << (a - asientosIds[0]);
+                this.primero = asientosIds[0];
+                this.mascara = m;
+                this.dispersos = null;
+            } else {
+                this.primero = 0;
+                this.mascara = 0;
+                this.dispersos = asientosIds;
+            }
+        }
+
+        /** Asientos en orden creciente y a menos de 64 del primero (caben en la máscara). */
+        private static boolean compactable(int[] ids) {
+            if (ids.length == 0) return false;
+            for (int i = 1; i < ids.length; i++)
+                if (ids[i] <= ids[i - 1] || ids[i] - ids[0] >= 64) return false;
+            return true;
         }
 
         int getId() { return id; }
         int getEventoId() { return eventoId; }
         int getClienteId() { return clienteId; }
-        int[] getAsientosIds() { return asientosIds; }
-        double getNeto() { return neto; }
+
+        /** IDs de asiento; en forma compacta se decodifican en un arreglo nuevo. */
+        int[] getAsientosIds() {
+            if (dispersos != null) return dispersos;
+            int[] out = new int[Long.bitCount(mascara)];
+            long m = mascara;
+            for (int k = 0; m != 0; k++, m &= m - 1) out[k] = primero + Long.numberOfTrailingZeros(m);
+            return out;
+        }
+
+        /** Cantidad de asientos (sin decodificarlos). */
+        int cantidadAsientos() { return dispersos != null ? dispersos.length : Long.bitCount(mascara); }
+
+        LocalDateTime getFecha() {
+            long t = EPOCA_MS + milis;
+            return LocalDateTime.ofEpochSecond(Math.floorDiv(t, 1000), Math.floorMod(t, 1000) * 1_000_000, ZoneOffset.UTC);
+        }
+        long getBruto() { return bruto; }
+        long getDesc() { return desc; }
+        long getNeto() { return bruto - desc; }
 
         @Override
         public String toString() {
             return "Venta{id=" + id + ", evento=" + eventoId + ", cliente=" + clienteId +
-                    ", asientos=" + Arrays.toString(asientosIds) + ", fecha=" + fecha +
-                    ", bruto=" + bruto + ", desc=" + desc + ", neto=" + neto + "}";
+                    ", asientos=" + Arrays.toString(getAsientosIds()) + ", fecha=" + getFecha() +
+                    ", bruto=" + Dinero.formato(bruto) + ", desc=" + Dinero.formato(desc) +
+                    ", neto=" + Dinero.formato(getNeto()) + "}";
         }
     }
 
     /**
-     * Evento programado en el teatro, con un subplano (filas/columnas)
-     * no mayor que el plano base, precio base y lista de ventas.
+     * Carrito de un cliente con asientos de varias funciones (una línea
+     * por evento). Cada línea recuerda la versión del evento y la
+     * cotización vistas al agregarla; no retiene asientos.
      */
-    static class Evento {
-        private final int id;
-        private String nombre;
+    static class Carrito {
+
+        /** Asientos de un evento, con la versión y la cotización vistas. */
+        static class Linea {
+            private final int eventoId;
+            private final int[] ids;
+            private final String promo;
+            private final long version;
+            private final Cotizacion cotizada;
+
+            Linea(int eventoId, int[] ids, String promo, long version, Cotizacion cotizada) {
+                this.eventoId = eventoId;
+                this.ids = ids;
+                this.promo = promo;
+                this.version = version;
+                this.cotizada = cotizada;
+            }
+
+            int getEventoId() { return eventoId; }
+            int[] getIds() { return ids; }
+            String getPromo() { return promo; }
+            long getVersion() { return version; }
+            Cotizacion getCotizada() { return cotizada; }
+        }
+
+        private final int clienteId;
+        private final List<Linea> lineas = new ArrayList<>();
+        private int revalidados;               // eventos revalidados en la última confirmación
+
+        Carrito(int clienteId) { this.clienteId = clienteId; }
+
+        int getClienteId() { return clienteId; }
+        List<Linea> getLineas() { return Collections.unmodifiableList(lineas); }
+        boolean vacio() { return lineas.isEmpty(); }
+        void vaciar() { lineas.clear(); }
+        int getRevalidados() { return revalidados; }
+        void setRevalidados(int n) { this.revalidados = n; }
+
+        /** Línea del evento, o null. */
+        Linea linea(int eventoId) {
+            for (Linea l : lineas) if (l.eventoId == eventoId) return l;
+            return null;
+        }
+
+        /** Agrega la línea o reemplaza la del mismo evento. */
+        void poner(Linea l) {
+            for (int i = 0; i < lineas.size(); i++)
+                if (lineas.get(i).eventoId == l.eventoId) { lineas.set(i, l); return; }
+            lineas.add(l);
+        }
+
+        boolean quitar(int eventoId) { return lineas.removeIf(l -> l.eventoId == eventoId); }
+
+        /** Total cotizado (centavos). */
+        long total() {
+            long t = 0;
+            for (Linea l : lineas) t += l.cotizada.getNeto();
+            return t;
+        }
+    }
+
+    /**
+     * Parte inmutable de un evento (flyweight): geometría del subplano y
+     * precio base, más la tabla de precios compilada en caché. Todas las
+     * funciones de una serie apuntan a la misma instancia. Los IDs de
+     * asiento siguen la geometría propia: ID = fila * columnas + col + 1.
+     */
+    static class PlanoEvento {
         private final int filas, columnas;
-        private double precioBase;
-        private final List<Venta> ventas = new ArrayList<>();
+        private final long precioBase;
+        private volatile TablaPrecios tabla;   // caché derivada; no es estado
 
-        Evento(int id, String nombre, int filas, int columnas, double precioBase) {
-            this.id = id;
-            this.nombre = nombre;
+        PlanoEvento(int filas, int columnas, long precioBase) {
             this.filas = filas;
             this.columnas = columnas;
             this.precioBase = precioBase;
         }
 
-        int getId() { return id; }
-        String getNombre() { return nombre; }
-        void setNombre(String n) { this.nombre = n; }
         int getFilas() { return filas; }
         int getColumnas() { return columnas; }
-        double getPrecioBase() { return precioBase; }
-        void setPrecioBase(double p) { this.precioBase = p; }
-        List<Venta> getVentas() { return ventas; }
+        long getPrecioBase() { return precioBase; }
+        TablaPrecios getTabla() { return tabla; }
+        void setTabla(TablaPrecios t) { this.tabla = t; }
 
-        /** Capacidad total del subplano del evento. */
         int capacidad() { return filas * columnas; }
+        boolean contiene(int id) { return id >= 1 && id <= filas * columnas; }
+        int fila(int id) { return (id - 1) / columnas; }
+        int columna(int id) { return (id - 1) % columnas; }
+        int id(int fila, int columna) { return fila * columnas + columna + 1; }
+        String etiqueta(int id) { return nombreFila(fila(id)) + (columna(id) + 1); }
+
+        /** Rótulo de fila: A..Z y luego AA..ZZ (como las columnas de una planilla). */
+        static String nombreFila(int f) {
+            return f < 26 ? String.valueOf((char) ('A' + f))
+                          : String.valueOf((char) ('A' + f / 26 - 1)) + (char) ('A' + f % 26);
+        }
 
-        @Override
-        public String toString() {
-            return "Evento{id=" + id + ", nombre='" + nombre + "', sala=" + capacidad() +
-                    ", precioBase=" + precioBase + ", ventas=" + ventas.size() + "}";
+        /** Índice de fila de un rótulo de una o dos letras (mayúsculas); -1 si no es válido. */
+        static int indiceFila(String s) {
+            for (int i = 0; i < s.length(); i++) if (s.charAt(i) < 'A' || s.charAt(i) > 'Z') return -1;
+            if (s.length() == 1) return s.charAt(0) - 'A';
+            if (s.length() == 2) return (s.charAt(0) - 'A' + 1) * 26 + (s.charAt(1) - 'A');
+            return -1;
         }
     }
 
+    /**
+     * Zona con nombre sobre el subplano de un evento: un rectángulo de
+     * filas y columnas (inclusive, desde 0) con precio propio. Una zona
+     * por filas completas es el rectángulo de todas las columnas.
+     */
+    static class Zona {
+        private final String nombre;
+        private final int filaDesde, filaHasta, colDesde, colHasta;
+        private final long precio;
+
+        Zona(String nombre, int filaDesde, int filaHasta, int colDesde, int colHasta, long precio) {
+            Check.require(Check.texto(nombre), "Nombre de zona invalido");
+            Check.require(filaDesde >= 0 && filaDesde <= filaHasta && colDesde >= 0 && colDesde <= colHasta,
+                          "Rango de zona invalido");
+            Check.require(precio >= 0, "Precio invalido");
+            this.nombre = nombre.trim();
+            this.filaDesde = filaDesde;
+            this.filaHasta = filaHasta;
+            this.colDesde = colDesde;
+            this.colHasta = colHasta;
+            this.precio = precio;
+        }
 
-    /* ================== SERVICIOS AUXILIARES ================== */
+        String getNombre() { return nombre; }
+        int getFilaDesde() { return filaDesde; }
+        int getFilaHasta() { return filaHasta; }
+        int getColDesde() { return colDesde; }
+        int getColHasta() { return colHasta; }
+        long getPrecio() { return precio; }
+        int capacidad() { return (filaHasta - filaDesde + 1) * (colHasta - colDesde + 1); }
 
-    /** Servicio de cálculo de descuentos según el tipo de cliente. */
-    static class DescuentoService {
-        /**
-         * @return factor de descuento (0.10, 0.15 o 0.0)
-         */
-        static double factor(TipoCliente t) {
-            return switch (t) {
-                case ESTUDIANTE -> 0.10;
-                case TERCERA_EDAD -> 0.15;
-                default -> 0.0;
-            };
+        @Override
+        public String toString() {
+            return nombre + " [" + PlanoEvento.nombreFila(filaDesde) + "-" + PlanoEvento.nombreFila(filaHasta) +
+                   ", " + (colDesde + 1) + "-" + (colHasta + 1) + "] " + Dinero.formato(precio);
         }
     }
 
     /**
-     * Utilidades de validación para mantener la integridad del
-     * estado (inputs, existencia de entidades y ocupación).
+     * Zonas de un subplano ya validadas (dentro del plano y sin solaparse)
+     * con el índice asiento -> zona precalculado; inmutable, así todas
+     * las funciones de una serie pueden compartirlo.
      */
-    static class Check {
-        /** Lanza IllegalArgumentException si la condición no se cumple. */
-        static void require(boolean c, String m) {
-            if (!c) throw new IllegalArgumentException(m);
+    static class MapaZonas {
+        /** Letras de A a Z salvo O y X (las usa el plano para ocupado/libre). */
+        static final int MAX_ZONAS = 24;
+
+        private final Zona[] zonas;
+        private final char[] letras;
+        private final byte[] zonaDe;   // por ID de asiento; -1 = sin zona (precio general)
+
+        MapaZonas(PlanoEvento p, List<Zona> lista) {
+            Check.require(!lista.isEmpty() && lista.size() <= MAX_ZONAS, "Entre 1 y " + MAX_ZONAS + " zonas");
+            this.zonas = lista.toArray(new Zona[0]);
+            this.letras = new char[zonas.length];
+            this.zonaDe = new byte[p.capacidad() + 1];
+            Arrays.fill(zonaDe, (byte) -1);
+            Set<Character> usadas = new HashSet<>();
+            for (int z = 0; z < zonas.length; z++) {
+                Zona zo = zonas[z];
+                Check.require(zo.getFilaHasta() < p.getFilas() && zo.getColHasta() < p.getColumnas(),
+                              "Zona " + zo.getNombre() + " fuera del plano");
+                for (int i = 0; i < z; i++)
+                    Check.require(!zonas[i].getNombre().equalsIgnoreCase(zo.getNombre()), "Zona repetida: " + zo.getNombre());
+                for (int f = zo.getFilaDesde(); f <= zo.getFilaHasta(); f++)
+                    for (int c = zo.getColDesde(); c <= zo.getColHasta(); c++) {
+                        int id = p.id(f, c);
+                        Check.require(zonaDe[id] < 0, "Zonas solapadas en " + p.etiqueta(id));
+                        zonaDe[id] = (byte) z;
+                    }
+                // Letra para el plano: inicial del nombre, o la primera libre
+                char l = Character.toUpperCase(zo.getNombre().charAt(0));
+                if (l < 'A' || l > 'Z' || l == 'O' || l == 'X' || usadas.contains(l))
+                    for (l = 'A'; l <= 'Z' && (usadas.contains(l) || l == 'O' || l == 'X'); l++) { }
+                usadas.add(l);
+                letras[z] = l;
+            }
         }
 
-        /** Valida que una cadena no esté vacía o nula. */
-        static boolean texto(String s) {
-            return s != null && !s.trim().isEmpty();
-        }
+        int cantidad() { return zonas.length; }
+        Zona zona(int z) { return zonas[z]; }
+        char letra(int z) { return letras[z]; }
+        int zonaDe(int id) { return zonaDe[id]; }
 
-        /** Verifica si un cliente de ID dado existe en el arreglo. */
-        static boolean existeCliente(Cliente[] cs, int id) {
-            for (Cliente c : cs) if (c != null && c.getId() == id) return true;
-            return false;
+        /** Índice de la zona por nombre (sin distinguir mayúsculas) o -1. */
+        int indice(String nombre) {
+            for (int z = 0; z < zonas.length; z++) if (zonas[z].getNombre().equalsIgnoreCase(nombre.trim())) return z;
+            return -1;
         }
 
-        /** Busca un asiento por ID dentro del plano base. */
-        static Asiento buscar(Asiento[] as, int id) {
-            for (Asiento a : as) if (a != null && a.getId() == id) return a;
-            return null;
-        }
+        List<Zona> lista() { return List.of(zonas); }
+    }
 
-        /** Indica si un asiento está ocupado en un evento. */
-        static boolean ocupado(Evento e, int asientoId) {
-            for (Venta v : e.getVentas())
-                for (int x : v.getAsientosIds())
-                    if (x == asientoId) return true;
-            return false;
+    /**
+     * Evento (función) programado en el teatro. La geometría y el precio
+     * vienen de un {@link PlanoEvento} compartible; lo propio de cada
+     * función es su ocupación (bitset indexado por ID de asiento), sus
+     * ventas y su historial, estos dos creados recién con la primera venta.
+     */
+    static class Evento {
+        private final int id;
+        private String nombre;
+        private PlanoEvento plano;
+        private final LocalDateTime funcion;   // null = sin fecha
+        private final int serieId;             // 0 = función suelta
+        private List<Venta> ventas;
+        private TablaPrecios tabla;   // solo si hay reglas propias del evento
+        private int limitePorCliente;          // 0 = usa el límite general
+        private final BitSet ocupacion = new BitSet();
+        private int ocupados;
+        private HistorialEvento historial;
+        private int[] tramoFila;               // tramo libre más largo por fila (null = sala vacía)
+        private int tramoMax = -1;             // máximo de tramoFila (-1 = sala vacía)
+        private PreciosDinamicos dinamicos;    // null = precio fijo
+        private int escalon;                   // escalón de precio vigente
+        private int subirEn, bajarEn;          // ocupados que cambian de escalón
+        private long precioVigente;            // precio base con el recargo del escalón
+        private MapaZonas zonas;               // null = sin zonas
+        private int[] ocupadosZona;            // por zona
+        private int[][] tramoZona;             // [zona][fila - filaDesde]: tramo libre más largo
+        private long version;                  // cambia con cada venta o baja
+
+        Evento(int id, String nombre, int filas, int columnas, long precioBase) {
+            this(id, nombre, new PlanoEvento(filas, columnas, precioBase), null, 0);
         }
 
-        /** Indica si todos los asientos pasados están libres en el evento. */
-        static boolean libres(Evento e, int[] ids) {
-            for (int id : ids)
-                if (ocupado(e, id)) return false;
-            return true;
+        Evento(int id, String nombre, PlanoEvento plano, LocalDateTime funcion, int serieId) {
+            this.id = id;
+            this.nombre = nombre;
+            this.plano = plano;
+            this.funcion = funcion;
+            this.serieId = serieId;
         }
 
-        /**
-         * Invariante de ocupación: el total de asientos ocupados
-         * (sumado por ventas) no debe contener duplicados.
-         */
-        static boolean invariante(Evento e) {
-            Set<Integer> set = new HashSet<>();
-            int suma = 0;
-            for (Venta v : e.getVentas()) {
-                for (int id : v.getAsientosIds()) set.add(id);
-                suma += v.getAsientosIds().length;
-            }
-            return set.size() == suma;
+        int getId() { return id; }
+        String getNombre() { return nombre; }
+        void setNombre(String n) { this.nombre = n; }
+        PlanoEvento getPlano() { return plano; }
+        LocalDateTime getFuncion() { return funcion; }
+        int getSerieId() { return serieId; }
+        int getFilas() { return plano.getFilas(); }
+        int getColumnas() { return plano.getColumnas(); }
+        long getPrecioBase() { return plano.getPrecioBase(); }
+
+        /** Cambia el precio solo de este evento (copia el plano compartido). */
+        void setPrecioBase(long p) {
+            this.plano = new PlanoEvento(plano.getFilas(), plano.getColumnas(), p);
+            this.tabla = null;
+            if (dinamicos != null) recalcularEscalon();
         }
-    }
-
 
-    /* ================== NÚCLEO DE NEGOCIO ================== */
-
-    /**
-     * Núcleo lógico del sistema:
-     * - Mantiene los arreglos de clientes y ventas.
-     * - Mantiene lista de eventos.
-     * - Genera el plano base de asientos y permite renderizar vistas.
-     */
-    static class TeatroMoroCore {
-        // Estructuras principales (arreglos dinámicos + lista)
-        private Cliente[] clientes;
-        private Venta[] ventas;
-        private final Asiento[] asientosBase;
-        private final List<Evento> eventos = new ArrayList<>();
+        PreciosDinamicos getDinamicos() { return dinamicos; }
 
-        // Autoincrementales
-        private int nextClienteId = 1, nextVentaId = 1, nextEventoId = 1;
+        /** Activa (o con null desactiva) los precios dinámicos del evento. */
+        void setDinamicos(PreciosDinamicos d) {
+            this.dinamicos = d;
+            if (d != null) recalcularEscalon();
+        }
 
-        // Dimensiones del plano base
-        private final int baseFilas, baseColumnas;
+        /** Precio por asiento vigente (sin recargo de fila). */
+        long getPrecioActual() { return dinamicos == null ? plano.getPrecioBase() : precioVigente; }
 
         /**
-         * @param capClientes capacidad inicial del arreglo de clientes
-         * @param filas       filas del plano base del teatro
-         * @param columnas    columnas del plano base del teatro
-         * @param capVentas   capacidad inicial del arreglo de ventas
-         * @param precioInicial precio base para el "Evento Inicial"
+         * Precio de un asiento concreto: el de su zona (o el base), con el
+         * recargo del escalón vigente y el de su fila si hay precios dinámicos.
          */
-        TeatroMoroCore(int capClientes, int filas, int columnas, int capVentas, double precioInicial) {
-            this.clientes = new Cliente[capClientes];
-            this.ventas = new Venta[capVentas];
-            this.baseFilas = filas;
-            this.baseColumnas = columnas;
-            this.asientosBase = generarAsientos(filas, columnas);
-            // Evento inicial para tener datos listos para operar
-            eventos.add(new Evento(nextEventoId++, "Evento Inicial", filas, columnas, precioInicial));
+        long precioAsiento(int asientoId) {
+            int z = zonas == null ? -1 : zonas.zonaDe(asientoId);
+            if (z < 0 && dinamicos == null) return plano.getPrecioBase();
+            if (z < 0) return dinamicos.conRecargoFila(precioVigente, plano.fila(asientoId));
+            return precioZona(z, plano.fila(asientoId));
+        }
+
+        /** Precio de la zona z en una fila: el de la zona con el escalón vigente y el recargo de esa fila. */
+        long precioZona(int z, int fila) {
+            long p = zonas.zona(z).getPrecio();
+            if (dinamicos == null) return p;
+            return dinamicos.conRecargoFila(dinamicos.precioEscalon(p, escalon), fila);
         }
 
         /**
-         * Genera el plano base de asientos etiquetado (A1..), con IDs secuenciales.
+         * Cota inferior del precio de un asiento (base o zona, con el
+         * escalón vigente; los recargos de fila solo suben): sirve para
+         * descartar el evento sin mirar asientos.
          */
-        private Asiento[] generarAsientos(int filas, int columnas) {
-            Asiento[] base = new Asiento[filas * columnas];
-            int id = 1;
-            for (int f = 0; f < filas; f++) {
-                for (int c = 0; c < columnas; c++) {
-                    String etiqueta = ((char) ('A' + f)) + String.valueOf(c + 1);
-                    base[(f * columnas) + c] = new Asiento(id++, f, c, etiqueta);
+        long precioMinimo() {
+            long min = getPrecioActual();
+            if (zonas != null)
+                for (int z = 0; z < zonas.cantidad(); z++) {
+                    long p = zonas.zona(z).getPrecio();
+                    min = Math.min(min, dinamicos == null ? p : dinamicos.precioEscalon(p, escalon));
                 }
-            }
-            return base;
+            return min;
         }
 
-        /* ====== CLIENTES (CRUD con arreglo dinámico) ====== */
+        MapaZonas getZonas() { return zonas; }
 
         /**
-         * Alta de cliente; expande el arreglo si no hay espacio.
+         * Asigna (o con null quita) las zonas; recorre la ocupación una
+         * sola vez para inicializar los contadores por zona.
          */
-        Cliente altaCliente(String nombre, TipoCliente tipo) {
-            Check.require(Check.texto(nombre), "Nombre invalido");
-            Cliente n = new Cliente(nextClienteId++, nombre.trim(), tipo);
-            insertarCliente(n);
-            return n;
+        void setZonas(MapaZonas m) {
+            this.zonas = m;
+            this.ocupadosZona = null;
+            this.tramoZona = null;
+            if (m == null) return;
+            ocupadosZona = new int[m.cantidad()];
+            tramoZona = new int[m.cantidad()][];
+            for (int id = ocupacion.nextSetBit(1); id >= 0; id = ocupacion.nextSetBit(id + 1)) {
+                int z = m.zonaDe(id);
+                if (z >= 0) ocupadosZona[z]++;
+            }
+            for (int z = 0; z < m.cantidad(); z++) {
+                Zona zo = m.zona(z);
+                tramoZona[z] = new int[zo.getFilaHasta() - zo.getFilaDesde() + 1];
+                for (int f = zo.getFilaDesde(); f <= zo.getFilaHasta(); f++) recalcularTramoZona(z, f);
+            }
         }
 
-        /** Inserta cliente, ampliando el arreglo si está lleno. */
-        private void insertarCliente(Cliente c) {
-            for (int i = 0; i < clientes.length; i++)
-                if (clientes[i] == null) { clientes[i] = c; return; }
-            clientes = Arrays.copyOf(clientes, clientes.length + Math.max(4, clientes.length / 2));
-            insertarCliente(c);
-        }
+        /** Libres de la zona z (contador, O(1)). */
+        int libresZona(int z) { return zonas.zona(z).capacidad() - ocupadosZona[z]; }
 
-        /**
-         * Actualiza nombre y/o tipo de un cliente existente.
-         * @return true si se actualizó, false si no se encontró el ID.
-         */
-        boolean actualizarCliente(int id, String nom, TipoCliente t) {
-            for (int i = 0; i < clientes.length; i++) {
-                var c = clientes[i];
-                if (c != null && c.getId() == id) {
-                    if (Check.texto(nom)) c.setNombre(nom.trim());
-                    if (t != null) c.setTipo(t);
-                    return true;
-                }
+        /** Tramo libre más largo de la zona z en la fila f (resumen, O(1)). */
+        int tramoZona(int z, int f) { return tramoZona[z][f - zonas.zona(z).getFilaDesde()]; }
+
+        /** Contadores y tramos de zona para los asientos tocados (d = +1 ocupa, -1 libera). */
+        private void actualizarZonas(int[] ids, int d) {
+            for (int id : ids) {
+                int z = zonas.zonaDe(id);
+                if (z < 0) continue;
+                ocupadosZona[z] += d;
+                recalcularTramoZona(z, plano.fila(id));
             }
-            return false;
         }
 
-        /**
-         * Baja lógica de cliente (deja hueco null en el arreglo).
-         */
-        boolean bajaCliente(int id) {
-            for (int i = 0; i < clientes.length; i++)
-                if (clientes[i] != null && clientes[i].getId() == id) {
-                    clientes[i] = null;
-                    return true;
-                }
-            return false;
+        private void recalcularTramoZona(int z, int f) {
+            Zona zo = zonas.zona(z);
+            int base = plano.id(f, zo.getColDesde()), fin = plano.id(f, zo.getColHasta()) + 1, mejor = 0;
+            for (int libre = ocupacion.nextClearBit(base); libre < fin; ) {
+                int ocup = ocupacion.nextSetBit(libre);
+                int hasta = (ocup < 0 || ocup > fin) ? fin : ocup;
+                mejor = Math.max(mejor, hasta - libre);
+                libre = ocupacion.nextClearBit(hasta);
+            }
+            tramoZona[z][f - zo.getFilaDesde()] = mejor;
         }
 
-        /**
-         * Compacta el arreglo eliminando los huecos null intermedios.
-         */
-        void compactarClientes() {
-            Cliente[] n = new Cliente[clientes.length];
-            int k = 0;
-            for (Cliente c : clientes) if (c != null) n[k++] = c;
-            clientes = n;
-        }
+        int getEscalon() { return escalon; }
 
-        /** Busca cliente por ID. */
-        Cliente buscarClientePorId(int id) {
-            for (Cliente c : clientes)
-                if (c != null && c.getId() == id) return c;
-            return null;
+        /** Recalcula escalón, umbrales y precio (solo al cruzar un umbral o cambiar la configuración). */
+        private void recalcularEscalon() {
+            int cap = capacidad();
+            escalon = dinamicos.escalon(ocupados, cap);
+            subirEn = dinamicos.umbralAsientos(escalon, cap);
+            bajarEn = escalon == 0 ? Integer.MIN_VALUE : dinamicos.umbralAsientos(escalon - 1, cap);
+            precioVigente = dinamicos.precioEscalon(plano.getPrecioBase(), escalon);
         }
 
-        Cliente[] getClientes() { return clientes; }
+        TablaPrecios getTabla() { return tabla; }
+        void setTabla(TablaPrecios t) { this.tabla = t; }
+        int getLimitePorCliente() { return limitePorCliente; }
+        void setLimitePorCliente(int l) { this.limitePorCliente = l; }
 
-        /* ====== EVENTOS (lista) ====== */
+        /** Versión de la ocupación (la usan los carritos para saber si hay que revalidar). */
+        long getVersion() { return version; }
+        List<Venta> getVentas() { return ventas == null ? List.of() : ventas; }
+        BitSet getOcupacion() { return ocupacion; }
+        int getOcupados() { return ocupados; }
 
-        /**
-         * Crea un evento nuevo validando que no exceda el plano base.
-         */
-        Evento crearEvento(String nombre, int filas, int columnas, double precio) {
-            Check.require(filas >= 1 && filas <= baseFilas, "Filas 1-" + baseFilas);
-            Check.require(columnas >= 1 && columnas <= baseColumnas, "Columnas 1-" + baseColumnas);
-            Evento e = new Evento(nextEventoId++, nombre, filas, columnas, precio);
-            eventos.add(e);
-            return e;
+        HistorialEvento getHistorial() {
+            if (historial == null) historial = new HistorialEvento();
+            return historial;
         }
 
-        /** Obtiene evento por ID (o null si no existe). */
-        Evento obtenerEventoPorId(int id) {
-            for (Evento e : eventos) if (e.getId() == id) return e;
-            return null;
+        void agregarVenta(Venta v) {
+            if (ventas == null) ventas = new ArrayList<>();
+            ventas.add(v);
         }
 
-        /** Renombra evento si existe. */
-        boolean renombrarEvento(int id, String n) {
-            var e = obtenerEventoPorId(id);
-            if (e == null) return false;
-            if (Check.texto(n)) e.setNombre(n.trim());
-            return true;
-        }
+        boolean quitarVenta(Venta v) { return ventas != null && ventas.remove(v); }
 
-        /** Cambia precio base si el evento existe. */
-        boolean cambiarPrecioEvento(int id, double p) {
-            var e = obtenerEventoPorId(id);
-            if (e == null) return false;
-            e.setPrecioBase(p);
-            return true;
-        }
+        /** Indica si el asiento está ocupado (lectura directa del bitset). */
+        boolean ocupado(int asientoId) { return ocupacion.get(asientoId); }
 
-        /**
-         * Elimina un evento solo si no tiene ventas asociadas (seguridad
-         * referencial mínima sin sistema de tickets persistentes).
-         */
-        boolean eliminarEventoSinVentas(int id) {
-            var e = obtenerEventoPorId(id);
-            if (e == null || !e.getVentas().isEmpty()) return false;
-            return eventos.remove(e);
+        /** Marca asientos como ocupados (el llamador ya verificó que estaban libres). */
+        void ocupar(int[] ids) {
+            for (int id : ids) ocupacion.set(id);
+            ocupados += ids.length;
+            version++;
+            recalcularTramos(ids);
+            if (zonas != null) actualizarZonas(ids, 1);
+            if (dinamicos != null && ocupados >= subirEn) recalcularEscalon();
         }
 
-        List<Evento> getEventos() { return eventos; }
+        /** Libera asientos de una venta eliminada. */
+        void liberar(int[] ids) {
+            for (int id : ids) ocupacion.clear(id);
+            ocupados -= ids.length;
+            version++;
+            recalcularTramos(ids);
+            if (zonas != null) actualizarZonas(ids, -1);
+            if (dinamicos != null && ocupados < bajarEn) recalcularEscalon();
+        }
 
-        /* ====== DISPONIBILIDAD ====== */
+        /** Tramo libre más largo de la fila (consulta O(1) del resumen). */
+        int tramoLibre(int fila) { return tramoFila == null ? plano.getColumnas() : tramoFila[fila]; }
 
-        /** Total de asientos del subplano del evento. */
-        int total(Evento e) { return e.getFilas() * e.getColumnas(); }
+        /** Tramo libre más largo de toda la sala. */
+        int tramoLibreMax() { return tramoMax < 0 ? plano.getColumnas() : tramoMax; }
 
-        /** Total de asientos ocupados por las ventas del evento. */
-        int ocupados(Evento e) {
-            int s = 0;
-            for (Venta v : e.getVentas()) s += v.getAsientosIds().length;
-            return s;
+        /** Actualiza el resumen de tramos solo en las filas tocadas. */
+        private void recalcularTramos(int[] ids) {
+            int F = plano.getFilas(), K = plano.getColumnas();
+            if (tramoFila == null) {
+                tramoFila = new int[F];
+                Arrays.fill(tramoFila, K);
+            }
+            for (int id : ids) {
+                int f = plano.fila(id), base = f * K + 1, fin = base + K, mejor = 0;
+                for (int libre = ocupacion.nextClearBit(base); libre < fin; ) {
+                    int ocup = ocupacion.nextSetBit(libre);
+                    int hasta = (ocup < 0 || ocup > fin) ? fin : ocup;
+                    mejor = Math.max(mejor, hasta - libre);
+                    libre = ocupacion.nextClearBit(hasta);
+                }
+                tramoFila[f] = mejor;
+            }
+            int max = 0;
+            for (int t : tramoFila) max = Math.max(max, t);
+            tramoMax = max;
         }
 
-        /** Asientos libres restantes. */
-        int libres(Evento e) { return total(e) - ocupados(e); }
+        /** Capacidad total del subplano del evento. */
+        int capacidad() { return plano.capacidad(); }
 
-        /* ====== VENTAS ====== */
+        @Override
+        public String toString() {
+            return "Evento{id=" + id + ", nombre='" + nombre + "'" +
+                    (funcion == null ? "" : ", funcion=" + funcion) +
+                    (serieId == 0 ? "" : ", serie=" + serieId) + ", sala=" + capacidad() +
+                    ", precioBase=" + Dinero.formato(getPrecioBase()) +
+                    (dinamicos == null ? "" : ", precioActual=" + Dinero.formato(precioVigente) + " (escalon " + escalon + ")") +
+                    ", ventas=" + getVentas().size() + "}";
+        }
+    }
 
-        /**
-         * Ejecuta una venta validando:
-         * - existencia de evento y cliente,
-         * - cantidad válida y <= límite,
-         * - pertenencia de cada asiento al subplano del evento,
+    /**
+     * Evento ya realizado, congelado en columnas de primitivos (una fila
+     * por venta) en lugar de objetos: ni {@code Venta}, ni listas, ni
+     * {@code LocalDateTime} por venta. Es de solo lectura; las ventas se
+     * reconstruyen bajo demanda al consultarlas.
+     */
+    static class EventoArchivado {
+        private final int id, serieId;
+        private final String nombre;
+        private final PlanoEvento plano;
+        private final long funcion;            // epoch ms UTC; Long.MIN_VALUE = sin fecha
+        private final long[] ocupacion;        // BitSet congelado
+        private final int ocupados;
+        private final long recaudacion;
+
+        // Columnas de ventas, ordenadas por fecha
+        private final int[] ventaIds, clienteIds;
+        private final long[] fechas, bruto, desc, neto;
+        private final int[] inicioAsientos, asientos;   // asientos de la venta i: [inicio[i], inicio[i+1])
+
+        EventoArchivado(Evento e) {
+            this.id = e.getId();
+            this.serieId = e.getSerieId();
+            this.nombre = e.getNombre();
+            this.plano = e.getPlano();
+            this.funcion = e.getFuncion() == null ? Long.MIN_VALUE : HistorialEvento.milis(e.getFuncion());
+            this.ocupacion = e.getOcupacion().toLongArray();
+            this.ocupados = e.getOcupados();
+
+            List<Venta> vs = new ArrayList<>(e.getVentas());
+            vs.sort(Comparator.comparing(Venta::getFecha).thenComparingInt(Venta::getId));
+            int n = vs.size(), total = 0;
+            for (Venta v : vs) total += v.cantidadAsientos();
+            ventaIds = new int[n]; clienteIds = new int[n];
+            fechas = new long[n]; bruto = new long[n]; desc = new long[n]; neto = new long[n];
+            inicioAsientos = new int[n + 1]; asientos = new int[total];
+            long rec = 0;
+            for (int i = 0, k = 0; i < n; i++) {
+                Venta v = vs.get(i);
+                ventaIds[i] = v.getId();
+                clienteIds[i] = v.getClienteId();
+                fechas[i] = HistorialEvento.milis(v.getFecha());
+                bruto[i] = v.getBruto();
+                desc[i] = v.getDesc();
+                neto[i] = v.getNeto();
+                inicioAsientos[i] = k;
+                for (int a : v.getAsientosIds()) asientos[k++] = a;
+                rec += v.getNeto();
+            }
+            inicioAsientos[n] = total;
+            this.recaudacion = rec;
+        }
+
+        int getId() { return id; }
+        int getSerieId() { return serieId; }
+        String getNombre() { return nombre; }
+        PlanoEvento getPlano() { return plano; }
+        LocalDateTime getFuncion() { return funcion == Long.MIN_VALUE ? null : fecha(funcion); }
+        int getOcupados() { return ocupados; }
+        int capacidad() { return plano.capacidad(); }
+        long getRecaudacion() { return recaudacion; }
+        int cantidadVentas() { return ventaIds.length; }
+        int ventaId(int i) { return ventaIds[i]; }
+        int clienteId(int i) { return clienteIds[i]; }
+        BitSet ocupacion() { return BitSet.valueOf(ocupacion); }
+
+        /** Reconstruye la venta i (objeto nuevo en cada llamada). */
+        Venta venta(int i) {
+            return new Venta(ventaIds[i], id, clienteIds[i],
+                             Arrays.copyOfRange(asientos, inicioAsientos[i], inicioAsientos[i + 1]),
+                             fecha(fechas[i]), bruto[i], desc[i], neto[i]);
+        }
+
+        /** Posición de la venta con ese ID, o -1. */
+        int posicion(int ventaId) {
+            for (int i = 0; i < ventaIds.length; i++) if (ventaIds[i] == ventaId) return i;
+            return -1;
+        }
+
+        /** Ventas con fecha en [desde, hasta) (ms), por búsqueda binaria. */
+        void entre(long desde, long hasta, List<Venta> out) {
+            int lo = 0, hi = fechas.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (fechas[mid] < desde) lo = mid + 1; else hi = mid;
+            }
+            for (int i = lo; i < fechas.length && fechas[i] < hasta; i++) out.add(venta(i));
+        }
+
+        private static LocalDateTime fecha(long ms) {
+            return LocalDateTime.ofEpochSecond(Math.floorDiv(ms, 1000L),
+                                               (int) Math.floorMod(ms, 1000L) * 1_000_000, ZoneOffset.UTC);
+        }
+
+        @Override
+        public String toString() {
+            return "Archivado{id=" + id + ", nombre='" + nombre + "'" +
+                    (funcion == Long.MIN_VALUE ? "" : ", funcion=" + getFuncion()) +
+                    ", vendidos=" + ocupados + "/" + capacidad() + ", ventas=" + ventaIds.length +
+                    ", recaudado=" + Dinero.formato(recaudacion) + "}";
+        }
+    }
+
+
+    /**
+     * Historial de ocupación de un evento: movimientos (altas y bajas de
+     * ventas) en orden temporal, intercalados con puntos de control que
+     * guardan la ocupación como bitset cada {@link #INTERVALO} movimientos.
+     * Reconstruir cualquier instante replaya a lo sumo INTERVALO-1
+     * movimientos desde el punto de control anterior.
+     */
+    static class HistorialEvento {
+        static final int INTERVALO = 64;
+
+        /** Ocupación, recaudación y cantidad de ventas en un instante. */
+        static class Estado {
+            private final BitSet ocupacion;
+            private final long recaudacion;
+            private final int ventas;
+
+            Estado(BitSet ocupacion, long recaudacion, int ventas) {
+                this.ocupacion = ocupacion;
+                this.recaudacion = recaudacion;
+                this.ventas = ventas;
+            }
+
+            BitSet getOcupacion() { return ocupacion; }
+            long getRecaudacion() { return recaudacion; }
+            int getVentas() { return ventas; }
+            int getOcupados() { return ocupacion.cardinality(); }
+        }
+
+        /** Punto de control: estado después de k * INTERVALO movimientos. */
+        private static class PuntoControl {
+            private final long[] bits;
+            private final long recaudacion;
+            private final int ventas;
+
+            PuntoControl(long[] bits, long recaudacion, int ventas) {
+                this.bits = bits;
+                this.recaudacion = recaudacion;
+                this.ventas = ventas;
+            }
+        }
+
+        // Movimientos en columnas paralelas; la baja (devolución) se marca
+        // aparte: una venta de monto 0 no distingue alta de baja por el signo
+        private long[] instantes = new long[8];
+        private int[][] asientos = new int[8][];
+        private long[] netos = new long[8];
+        private boolean[] altas = new boolean[8];
+        private int n;
+        private final List<PuntoControl> puntos = new ArrayList<>(List.of(new PuntoControl(new long[0], 0, 0)));
+        private long recaudacion;
+        private int ventas;
+
+        /** Instante en milisegundos (escala local, solo para ordenar y comparar). */
+        static long milis(LocalDateTime t) { return t.toInstant(ZoneOffset.UTC).toEpochMilli(); }
+
+        void registrarAlta(Venta v, BitSet ocupacionActual) {
+            agregar(v.getFecha(), v.getAsientosIds(), v.getNeto(), true, ocupacionActual);
+        }
+
+        void registrarBaja(Venta v, LocalDateTime cuando, BitSet ocupacionActual) {
+            agregar(cuando, v.getAsientosIds(), -v.getNeto(), false, ocupacionActual);
+        }
+
+        private void agregar(LocalDateTime cuando, int[] ids, long neto, boolean alta, BitSet ocupacionActual) {
+            if (n == instantes.length) {
+                int cap = n * 2;
+                instantes = Arrays.copyOf(instantes, cap);
+                asientos = Arrays.copyOf(asientos, cap);
+                netos = Arrays.copyOf(netos, cap);
+                altas = Arrays.copyOf(altas, cap);
+            }
+            // El reloj de pared puede retroceder: se fuerza orden no decreciente
+            long t = milis(cuando);
+            instantes[n] = (n > 0) ? Math.max(t, instantes[n - 1]) : t;
+            asientos[n] = ids;
+            netos[n] = neto;
+            altas[n] = alta;
+            n++;
+            recaudacion += neto;
+            ventas += alta ? 1 : -1;
+            if (n % INTERVALO == 0)
+                puntos.add(new PuntoControl(ocupacionActual.toLongArray(), recaudacion, ventas));
+        }
+
+        int movimientos() { return n; }
+
+        /** Reconstruye el estado con todos los movimientos hasta el instante (inclusive). */
+        Estado estadoEn(LocalDateTime instante) {
+            long t = milis(instante);
+            int lo = 0, hi = n;                  // primer movimiento posterior a t
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (instantes[mid] <= t) lo = mid + 1; else hi = mid;
+            }
+            int k = lo / INTERVALO;
+            PuntoControl pc = puntos.get(k);
+            BitSet bs = BitSet.valueOf(pc.bits);
+            long rec = pc.recaudacion;
+            int vs = pc.ventas;
+            for (int i = k * INTERVALO; i < lo; i++) {
+                boolean alta = altas[i];
+                for (int id : asientos[i]) bs.set(id, alta);
+                rec += netos[i];
+                vs += alta ? 1 : -1;
+            }
+            return new Estado(bs, rec, vs);
+        }
+    }
+
+    /**
+     * Regla de descuento declarada como dato. Solo se usan los campos
+     * propios de su {@link TipoRegla}; {@code eventoId == 0} aplica a
+     * todos los eventos. Se crea con las fábricas estáticas.
+     */
+    static class ReglaDescuento {
+        private final TipoRegla tipo;
+        private final int puntosBase;
+        private int eventoId;
+        private TipoCliente tipoCliente;
+        private NivelSocio nivel;
+        private int minAsientos;
+        private LocalDateTime desde, hasta;
+        private String codigo;
+
+        private ReglaDescuento(TipoRegla tipo, int puntosBase) {
+            this.tipo = tipo;
+            this.puntosBase = puntosBase;
+        }
+
+        static ReglaDescuento porTipo(TipoCliente t, int pb) {
+            ReglaDescuento r = new ReglaDescuento(TipoRegla.TIPO_CLIENTE, pb);
+            r.tipoCliente = t;
+            return r;
+        }
+
+        static ReglaDescuento socio(NivelSocio n, int pb) {
+            ReglaDescuento r = new ReglaDescuento(TipoRegla.SOCIO, pb);
+            r.nivel = n;
+            return r;
+        }
+
+        /** Descuento extra desde {@code min} asientos en la misma venta. */
+        static ReglaDescuento grupo(int min, int pb) {
+            ReglaDescuento r = new ReglaDescuento(TipoRegla.GRUPO, pb);
+            r.minAsientos = min;
+            return r;
+        }
+
+        /** Descuento de preventa vigente en [desde, hasta). */
+        static ReglaDescuento preventa(LocalDateTime desde, LocalDateTime hasta, int pb) {
+            ReglaDescuento r = new ReglaDescuento(TipoRegla.PREVENTA, pb);
+            r.desde = desde;
+            r.hasta = hasta;
+            return r;
+        }
+
+        static ReglaDescuento promo(String codigo, int pb) {
+            ReglaDescuento r = new ReglaDescuento(TipoRegla.CODIGO_PROMO, pb);
+            r.codigo = codigo == null ? null : codigo.trim().toUpperCase(Locale.ROOT);
+            return r;
+        }
+
+        /** Restringe la regla a un único evento. */
+        ReglaDescuento soloEvento(int id) { this.eventoId = id; return this; }
+
+        TipoRegla getTipo() { return tipo; }
+        int getPuntosBase() { return puntosBase; }
+        int getEventoId() { return eventoId; }
+
+        boolean aplicaA(Evento e) { return eventoId == 0 || eventoId == e.getId(); }
+
+        @Override
+        public String toString() {
+            String cond = switch (tipo) {
+                case TIPO_CLIENTE -> "tipo=" + tipoCliente;
+                case SOCIO -> "socio=" + nivel;
+                case GRUPO -> "desde " + minAsientos + " asientos";
+                case PREVENTA -> desde + " a " + hasta;
+                case CODIGO_PROMO -> "codigo=" + codigo;
+            };
+            return tipo + " " + (puntosBase / 100.0) + "% (" + cond + ")" +
+                   (eventoId == 0 ? "" : " evento " + eventoId);
+        }
+    }
+
+
+    /* ================== SERVICIOS AUXILIARES ================== */
+
+    /**
+     * Montos en punto fijo: toda la lógica trabaja con centavos en
+     * {@code long}; los decimales solo aparecen al leer o mostrar.
+     */
+    static class Dinero {
+        /** Convierte un monto ingresado (ej. 5000.5) a centavos. */
+        static long centavos(double monto) {
+            return Math.round(monto * 100.0);
+        }
+
+        /** Formatea centavos como "1234.50" (con signo si es negativo). */
+        static String formato(long centavos) {
+            long abs = Math.abs(centavos);
+            return (centavos < 0 ? "-" : "") + (abs / 100) + "." + String.format("%02d", abs % 100);
+        }
+    }
+
+    /** Montos de una compra (centavos): bruto, descuento y neto. */
+    static class Cotizacion {
+        private final long bruto, desc, neto;
+
+        Cotizacion(long bruto, long desc) {
+            this.bruto = bruto;
+            this.desc = desc;
+            this.neto = bruto - desc;
+        }
+
+        long getBruto() { return bruto; }
+        long getDesc() { return desc; }
+        long getNeto() { return neto; }
+
+        /** Mismos montos (bruto y descuento) que otra cotización. */
+        boolean mismoMonto(Cotizacion o) { return bruto == o.bruto && desc == o.desc; }
+
+        @Override
+        public String toString() {
+            return "Bruto: " + Dinero.formato(bruto) + "  Descuento: " + Dinero.formato(desc) +
+                   "  Total: " + Dinero.formato(neto);
+        }
+    }
+
+    /** Aritmética de descuentos (puntos base sobre centavos). */
+    static class DescuentoService {
+        /** Escala de los descuentos: 10000 puntos base = 100%. */
+        static final int ESCALA_PB = 10_000;
+
+        /** Tope del descuento acumulado por reglas (50%). */
+        static final int TOPE_PB = 5_000;
+
+        /**
+         * Única rutina de precios: bruto = precio * cantidad y descuento
+         * redondeado al centavo (mitad hacia arriba), todo en enteros.
+         */
+        static Cotizacion cotizar(long precioUnitario, int cantidad, int puntosBase) {
+            return desdeBruto(precioUnitario * cantidad, puntosBase);
+        }
+
+        /** Igual, partiendo del bruto ya sumado (asientos con distinto precio). */
+        static Cotizacion desdeBruto(long bruto, int puntosBase) {
+            long desc = (bruto * puntosBase + ESCALA_PB / 2) / ESCALA_PB;
+            return new Cotizacion(bruto, desc);
+        }
+    }
+
+    /**
+     * Configuración de precios dinámicos de un evento (inmutable):
+     * escalones de ocupación con su recargo y un recargo opcional para
+     * las primeras filas. Todo en puntos base; el evento guarda el
+     * escalón vigente y solo recalcula su precio al cruzar un umbral.
+     */
+    static class PreciosDinamicos {
+        private final int[] umbralesPb;   // ocupación (pb de la capacidad) donde empieza cada escalón
+        private final int[] recargosPb;   // recargo de cada escalón sobre el precio base
+        private final int filasPremium, recargoFilaPb;
+
+        /**
+         * @param umbralesPb    ocupaciones crecientes, ej. {5000, 7500, 9000}
+         * @param recargosPb    recargo por escalón, ej. {1000, 2500, 5000}
+         * @param filasPremium  primeras filas con recargo (0 = ninguna)
+         * @param recargoFilaPb recargo de esas filas
+         */
+        PreciosDinamicos(int[] umbralesPb, int[] recargosPb, int filasPremium, int recargoFilaPb) {
+            Check.require(umbralesPb.length == recargosPb.length, "Umbrales y recargos no coinciden");
+            for (int i = 0; i < umbralesPb.length; i++) {
+                Check.require(umbralesPb[i] > 0 && umbralesPb[i] <= DescuentoService.ESCALA_PB &&
+                              (i == 0 || umbralesPb[i] > umbralesPb[i - 1]), "Umbrales invalidos");
+                Check.require(recargosPb[i] >= 0, "Recargo invalido");
+            }
+            Check.require(filasPremium >= 0 && recargoFilaPb >= 0, "Recargo de fila invalido");
+            this.umbralesPb = umbralesPb.clone();
+            this.recargosPb = recargosPb.clone();
+            this.filasPremium = filasPremium;
+            this.recargoFilaPb = recargoFilaPb;
+        }
+
+        /** Escalón para una ocupación: cantidad de umbrales alcanzados. */
+        int escalon(int ocupados, int capacidad) {
+            int k = 0;
+            while (k < umbralesPb.length && ocupados >= umbralAsientos(k, capacidad)) k++;
+            return k;
+        }
+
+        /** Asientos ocupados desde los que rige el escalón k+1 (MAX si no hay más). */
+        int umbralAsientos(int k, int capacidad) {
+            if (k >= umbralesPb.length) return Integer.MAX_VALUE;
+            return (int) (((long) capacidad * umbralesPb[k] + DescuentoService.ESCALA_PB - 1) / DescuentoService.ESCALA_PB);
+        }
+
+        /** Precio base con el recargo del escalón (redondeo al centavo). */
+        long precioEscalon(long precioBase, int escalon) {
+            return escalon == 0 ? precioBase : recargar(precioBase, recargosPb[escalon - 1]);
+        }
+
+        long conRecargoFila(long precio, int fila) {
+            return fila < filasPremium ? recargar(precio, recargoFilaPb) : precio;
+        }
+
+        private static long recargar(long p, int pb) {
+            return (p * (DescuentoService.ESCALA_PB + pb) + DescuentoService.ESCALA_PB / 2) / DescuentoService.ESCALA_PB;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Escalones:");
+            for (int i = 0; i < umbralesPb.length; i++)
+                sb.append(" ").append(umbralesPb[i] / 100.0).append("% -> +").append(recargosPb[i] / 100.0).append("%");
+            if (filasPremium > 0) sb.append(" | Filas 1-").append(filasPremium).append(": +").append(recargoFilaPb / 100.0).append("%");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Motor de reglas de descuento. Las reglas se validan al agregarse
+     * y se compilan por evento en una {@link TablaPrecios}; cada cambio
+     * incrementa la versión, lo que invalida las tablas ya compiladas.
+     * Combinación: por cada {@link TipoRegla} gana la mayor regla que
+     * aplique; las clases se suman hasta {@link DescuentoService#TOPE_PB}.
+     */
+    static class MotorDescuentos {
+        private final List<ReglaDescuento> reglas = new ArrayList<>();
+        private int version = 1;
+
+        /** Motor con los descuentos históricos por tipo de cliente. */
+        static MotorDescuentos porDefecto() {
+            MotorDescuentos m = new MotorDescuentos();
+            m.agregar(ReglaDescuento.porTipo(TipoCliente.ESTUDIANTE, 1000));
+            m.agregar(ReglaDescuento.porTipo(TipoCliente.TERCERA_EDAD, 1500));
+            return m;
+        }
+
+        /** Valida y agrega una regla. */
+        void agregar(ReglaDescuento r) {
+            Check.require(r != null, "Regla nula");
+            Check.require(r.puntosBase >= 1 && r.puntosBase <= DescuentoService.ESCALA_PB,
+                          "Descuento fuera de rango");
+            Check.require(r.eventoId >= 0, "Evento invalido");
+            switch (r.tipo) {
+                case TIPO_CLIENTE -> Check.require(r.tipoCliente != null, "Tipo de cliente requerido");
+                case SOCIO -> Check.require(r.nivel != null && r.nivel != NivelSocio.NINGUNO,
+                                            "Nivel de socio requerido");
+                case GRUPO -> Check.require(r.minAsientos >= 2 && r.minAsientos <= MAX_ASIENTOS_POR_VENTA,
+                                            "Grupo: minimo 2-" + MAX_ASIENTOS_POR_VENTA);
+                case PREVENTA -> Check.require(r.desde != null && r.hasta != null && r.desde.isBefore(r.hasta),
+                                               "Ventana de preventa invalida");
+                case CODIGO_PROMO -> {
+                    Check.require(Check.texto(r.codigo), "Codigo vacio");
+                    for (ReglaDescuento o : reglas)
+                        Check.require(!(o.tipo == TipoRegla.CODIGO_PROMO && o.codigo.equals(r.codigo)
+                                        && o.eventoId == r.eventoId), "Codigo repetido: " + r.codigo);
+                }
+            }
+            reglas.add(r);
+            version++;
+        }
+
+        /** Quita la regla en la posición dada (base cero). */
+        boolean quitar(int indice) {
+            if (indice < 0 || indice >= reglas.size()) return false;
+            reglas.remove(indice);
+            version++;
+            return true;
+        }
+
+        List<ReglaDescuento> getReglas() { return Collections.unmodifiableList(reglas); }
+        int getVersion() { return version; }
+
+        /** Indica si alguna regla apunta solo a ese evento. */
+        boolean tieneReglasPropias(int eventoId) {
+            for (ReglaDescuento r : reglas) if (r.eventoId == eventoId) return true;
+            return false;
+        }
+
+        /**
+         * Compila las reglas aplicables al evento en una tabla
+         * [fase][promo][tipo][nivel][cantidad] de puntos base.
+         */
+        TablaPrecios compilar(Evento e) {
+            List<ReglaDescuento> aplic = new ArrayList<>();
+            for (ReglaDescuento r : reglas) if (r.aplicaA(e)) aplic.add(r);
+
+            // Fases de tiempo: límites de todas las ventanas de preventa
+            TreeSet<Long> lim = new TreeSet<>();
+            Map<String, Integer> promos = new HashMap<>();
+            for (ReglaDescuento r : aplic) {
+                if (r.tipo == TipoRegla.PREVENTA) {
+                    lim.add(TablaPrecios.segundos(r.desde));
+                    lim.add(TablaPrecios.segundos(r.hasta));
+                } else if (r.tipo == TipoRegla.CODIGO_PROMO) {
+                    promos.putIfAbsent(r.codigo, promos.size() + 1);
+                }
+            }
+            long[] limites = new long[lim.size()];
+            int i = 0;
+            for (long x : lim) limites[i++] = x;
+
+            TablaPrecios t = new TablaPrecios(e.getPrecioBase(), version, limites, promos);
+            int[] mejor = new int[TipoRegla.values().length];
+            for (int f = 0; f < t.fases; f++) {
+                long instante = (f == 0) ? Long.MIN_VALUE : limites[f - 1];
+                for (int p = 0; p < t.promos; p++)
+                    for (TipoCliente tc : TipoCliente.values())
+                        for (NivelSocio ns : NivelSocio.values())
+                            for (int n = 1; n <= MAX_ASIENTOS_POR_VENTA; n++) {
+                                Arrays.fill(mejor, 0);
+                                for (ReglaDescuento r : aplic) {
+                                    boolean ok = switch (r.tipo) {
+                                        case TIPO_CLIENTE -> r.tipoCliente == tc;
+                                        case SOCIO -> r.nivel == ns;
+                                        case GRUPO -> n >= r.minAsientos;
+                                        case PREVENTA -> TablaPrecios.segundos(r.desde) <= instante
+                                                         && instante < TablaPrecios.segundos(r.hasta);
+                                        case CODIGO_PROMO -> p != 0 && promos.get(r.codigo) == p;
+                                    };
+                                    int k = r.tipo.ordinal();
+                                    if (ok && r.puntosBase > mejor[k]) mejor[k] = r.puntosBase;
+                                }
+                                int suma = 0;
+                                for (int m : mejor) suma += m;
+                                t.pb[t.indice(f, p, tc, ns, n)] = Math.min(suma, DescuentoService.TOPE_PB);
+                            }
+            }
+            return t;
+        }
+    }
+
+    /**
+     * Tabla de precios compilada para un evento (o compartida por todas
+     * las funciones de un mismo plano sin reglas propias): cotizar es
+     * una búsqueda de fase (binaria sobre pocos límites) más una lectura
+     * en un arreglo plano, sin importar cuántas reglas haya activas.
+     */
+    static class TablaPrecios {
+        private static final int TIPOS = TipoCliente.values().length;
+        private static final int NIVELES = NivelSocio.values().length;
+        private static final int CANTIDADES = MAX_ASIENTOS_POR_VENTA + 1;
+
+        private final long precioUnitario;
+        private final int version;
+        private final long[] limites;              // inicio de cada fase >= 1
+        private final Map<String, Integer> codigos; // código -> índice (>= 1)
+        final int fases, promos;
+        private final int[] pb;
+
+        TablaPrecios(long precioUnitario, int version, long[] limites, Map<String, Integer> codigos) {
+            this.precioUnitario = precioUnitario;
+            this.version = version;
+            this.limites = limites;
+            this.codigos = codigos;
+            this.fases = limites.length + 1;
+            this.promos = codigos.size() + 1;
+            this.pb = new int[fases * promos * TIPOS * NIVELES * CANTIDADES];
+        }
+
+        /** Instante como segundos (misma escala para reglas y consultas). */
+        static long segundos(LocalDateTime t) { return t.toEpochSecond(ZoneOffset.UTC); }
+
+        int indice(int fase, int promo, TipoCliente t, NivelSocio n, int cantidad) {
+            return (((fase * promos + promo) * TIPOS + t.ordinal()) * NIVELES + n.ordinal())
+                   * CANTIDADES + cantidad;
+        }
+
+        /** @return índice del código (0 = sin código) o -1 si no existe. */
+        int indicePromo(String codigo) {
+            if (!Check.texto(codigo)) return 0;
+            Integer i = codigos.get(codigo.trim().toUpperCase(Locale.ROOT));
+            return i == null ? -1 : i;
+        }
+
+        /** Fase de preventa vigente en el instante dado. */
+        int fase(LocalDateTime t) {
+            int i = Arrays.binarySearch(limites, segundos(t));
+            return i >= 0 ? i + 1 : -i - 1;
+        }
+
+        /** Cotiza {@code cantidad} asientos (1..máximo por venta). */
+        Cotizacion cotizar(LocalDateTime instante, int promo, Cliente c, int cantidad) {
+            return DescuentoService.cotizar(precioUnitario, cantidad, puntosBase(instante, promo, c, cantidad));
+        }
+
+        /** Descuento (pb) que corresponde, para aplicarlo sobre otro bruto (precios dinámicos). */
+        int puntosBase(LocalDateTime instante, int promo, Cliente c, int cantidad) {
+            return pb[indice(fase(instante), promo, c.getTipo(), c.getNivel(), cantidad)];
+        }
+
+        long getPrecioUnitario() { return precioUnitario; }
+        int getVersion() { return version; }
+    }
+
+    /** Lista creciente de enteros primitivos (sin boxing). */
+    static class ListaInt {
+        private int[] datos = new int[4];
+        private int n;
+
+        void agregar(int x) {
+            if (n == datos.length) datos = Arrays.copyOf(datos, n * 2);
+            datos[n++] = x;
+        }
+
+        /** Quita la primera aparición conservando el orden. */
+        boolean quitar(int x) {
+            for (int i = 0; i < n; i++)
+                if (datos[i] == x) {
+                    System.arraycopy(datos, i + 1, datos, i, n - i - 1);
+                    n--;
+                    return true;
+                }
+            return false;
+        }
+
+        int get(int i) { return datos[i]; }
+        int tamano() { return n; }
+        int[] aArreglo() { return Arrays.copyOf(datos, n); }
+    }
+
+    /**
+     * Mapa compacto long -> int con direccionamiento abierto (sondeo
+     * lineal y borrado por desplazamiento hacia atrás, sin lápidas).
+     * Las entradas que llegan a 0 se eliminan.
+     */
+    static class MapaLargoInt {
+        private long[] claves = new long[64];
+        private int[] valores = new int[64];
+        private boolean[] usadas = new boolean[64];
+        private int n;
+
+        private static int hash(long k) {
+            long h = k * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private int buscar(long k) {
+            int m = claves.length - 1, i = hash(k) & m;
+            while (usadas[i] && claves[i] != k) i = (i + 1) & m;
+            return i;
+        }
+
+        int get(long k) {
+            int i = buscar(k);
+            return usadas[i] ? valores[i] : 0;
+        }
+
+        /** Suma delta al valor de la clave (crea o elimina la entrada según corresponda). */
+        void sumar(long k, int delta) {
+            int i = buscar(k);
+            if (usadas[i]) {
+                valores[i] += delta;
+                if (valores[i] == 0) borrar(i);
+                return;
+            }
+            if (delta == 0) return;
+            claves[i] = k; valores[i] = delta; usadas[i] = true;
+            if (++n * 4 > claves.length * 3) redimensionar();
+        }
+
+        private void borrar(int i) {
+            int m = claves.length - 1;
+            usadas[i] = false;
+            n--;
+            // Reubica el grupo siguiente para no cortar cadenas de sondeo
+            for (int j = (i + 1) & m; usadas[j]; j = (j + 1) & m) {
+                long k = claves[j];
+                int v = valores[j];
+                usadas[j] = false;
+                int d = buscar(k);
+                claves[d] = k; valores[d] = v; usadas[d] = true;
+            }
+        }
+
+        private void redimensionar() {
+            long[] ck = claves; int[] cv = valores; boolean[] cu = usadas;
+            claves = new long[ck.length * 2]; valores = new int[ck.length * 2]; usadas = new boolean[ck.length * 2];
+            for (int i = 0; i < ck.length; i++)
+                if (cu[i]) {
+                    int d = buscar(ck[i]);
+                    claves[d] = ck[i]; valores[d] = cv[i]; usadas[d] = true;
+                }
+        }
+
+        int tamano() { return n; }
+
+        /** Clave compuesta de dos enteros. */
+        static long clave(int a, int b) { return ((long) a << 32) | (b & 0xFFFF_FFFFL); }
+    }
+
+    /**
+     * Índices secundarios de ventas, mantenidos en cada alta y baja:
+     * - ID de venta -> venta y posición en el arreglo global (O(1)),
+     * - cliente -> IDs de venta (listas de int primitivos),
+     * - orden temporal por fecha (columnas paralelas ordenadas).
+     * Las bajas en el índice temporal dejan lápida (la venta ya no está
+     * en el índice por ID) y se compactan cuando superan la mitad.
+     */
+    static class IndiceVentas {
+        private Venta[] porId = new Venta[64];
+        private int[] posicion = new int[64];
+        private final Map<Integer, ListaInt> porCliente = new HashMap<>();
+        private long[] instantes = new long[64];
+        private int[] idsTiempo = new int[64];
+        private int nTiempo, lapidas;
+
+        void agregar(Venta v, int pos) {
+            int id = v.getId();
+            if (id >= porId.length) {
+                int cap = Math.max(id + 1, porId.length * 2);
+                porId = Arrays.copyOf(porId, cap);
+                posicion = Arrays.copyOf(posicion, cap);
+            }
+            porId[id] = v;
+            posicion[id] = pos;
+            porCliente.computeIfAbsent(v.getClienteId(), k -> new ListaInt()).agregar(id);
+
+            if (nTiempo == instantes.length) {
+                instantes = Arrays.copyOf(instantes, nTiempo * 2);
+                idsTiempo = Arrays.copyOf(idsTiempo, nTiempo * 2);
+            }
+            // Normalmente llega en orden: inserción al final; si no, se desplaza (empate: por ID)
+            long t = HistorialEvento.milis(v.getFecha());
+            int i = nTiempo;
+            while (i > 0 && (instantes[i - 1] > t || (instantes[i - 1] == t && idsTiempo[i - 1] > id))) {
+                instantes[i] = instantes[i - 1];
+                idsTiempo[i] = idsTiempo[i - 1];
+                i--;
+            }
+            instantes[i] = t;
+            idsTiempo[i] = id;
+            nTiempo++;
+        }
+
+        /** Quita la venta de los índices. @return su posición en el arreglo global o -1. */
+        int quitar(Venta v) {
+            int id = v.getId();
+            if (id >= porId.length || porId[id] != v) return -1;
+            porId[id] = null;
+            ListaInt l = porCliente.get(v.getClienteId());
+            if (l != null) {
+                l.quitar(id);
+                if (l.tamano() == 0) porCliente.remove(v.getClienteId());
+            }
+            if (++lapidas > nTiempo / 2) compactar();
+            return posicion[id];
+        }
+
+        private void compactar() {
+            int k = 0;
+            for (int i = 0; i < nTiempo; i++)
+                if (idsTiempo[i] < porId.length && porId[idsTiempo[i]] != null) {
+                    instantes[k] = instantes[i];
+                    idsTiempo[k++] = idsTiempo[i];
+                }
+            nTiempo = k;
+            lapidas = 0;
+        }
+
+        Venta porId(int id) { return (id > 0 && id < porId.length) ? porId[id] : null; }
+
+        /** Ventas del cliente, en orden de alta. O(resultados). */
+        List<Venta> deCliente(int clienteId) {
+            ListaInt l = porCliente.get(clienteId);
+            if (l == null) return List.of();
+            List<Venta> out = new ArrayList<>(l.tamano());
+            for (int i = 0; i < l.tamano(); i++) out.add(porId[l.get(i)]);
+            return out;
+        }
+
+        /** Ventas con fecha en [desde, hasta), en orden temporal. */
+        List<Venta> entre(LocalDateTime desde, LocalDateTime hasta) {
+            long a = HistorialEvento.milis(desde), b = HistorialEvento.milis(hasta);
+            int lo = 0, hi = nTiempo;           // primer instante >= a
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (instantes[mid] < a) lo = mid + 1; else hi = mid;
+            }
+            List<Venta> out = new ArrayList<>();
+            for (int i = lo; i < nTiempo && instantes[i] < b; i++) {
+                Venta v = porId(idsTiempo[i]);
+                if (v != null) out.add(v);
+            }
+            return out;
+        }
+    }
+
+    /**
+     * Claves de solicitud ya atendidas (reintentos de terminales y API):
+     * clave -> venta confirmada, en orden de inserción: vence a tiempo
+     * fijo desde que se recordó y, llena, sale la más antigua. Vive en
+     * memoria, así que no sobrevive a un reinicio. No es sincronizada:
+     * la usa el núcleo dentro de su monitor, junto con la venta que
+     * protege, así dos duplicados concurrentes nunca venden dos veces.
+     */
+    static class CacheIdempotencia {
+        private static class Entrada {
+            final Venta venta;
+            final long vence;
+            Entrada(Venta venta, long vence) { this.venta = venta; this.vence = vence; }
+        }
+
+        private final int capacidad;
+        private final long ttlNanos;
+        private final LinkedHashMap<String, Entrada> mapa;
+
+        CacheIdempotencia(int capacidad, long ttlMs) {
+            Check.require(capacidad >= 1 && ttlMs >= 1, "Cache invalida");
+            this.capacidad = capacidad;
+            this.ttlNanos = ttlMs * 1_000_000L;
+            // Orden de inserción con TTL fijo: la primera entrada es la que vence antes
+            this.mapa = new LinkedHashMap<>(16, 0.75f, false) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entrada> e) {
+                    return size() > CacheIdempotencia.this.capacidad;
+                }
+            };
+        }
+
+        /** Venta asociada a la clave, o null si no existe o ya venció. */
+        Venta buscar(String clave, long ahoraNanos) {
+            Entrada en = mapa.get(clave);
+            if (en == null) return null;
+            if (en.vence - ahoraNanos <= 0) { mapa.remove(clave); return null; }
+            return en.venta;
+        }
+
+        /** Recuerda la venta confirmada y purga las entradas vencidas más antiguas. */
+        void recordar(String clave, Venta v, long ahoraNanos) {
+            Iterator<Entrada> it = mapa.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().vence - ahoraNanos > 0) break;
+                it.remove();
+            }
+            mapa.remove(clave);              // una clave re-recordada pasa al final
+            mapa.put(clave, new Entrada(v, ahoraNanos + ttlNanos));
+        }
+
+        int tamano() { return mapa.size(); }
+    }
+
+    /**
+     * Utilidades de validación para mantener la integridad del
+     * estado (inputs, existencia de entidades y ocupación).
+     */
+    static class Check {
+        /** Lanza IllegalArgumentException si la condición no se cumple. */
+        static void require(boolean c, String m) {
+            if (!c) throw new IllegalArgumentException(m);
+        }
+
+        /** Valida que una cadena no esté vacía o nula. */
+        static boolean texto(String s) {
+            return s != null && !s.trim().isEmpty();
+        }
+
+        /** Verifica si un cliente de ID dado existe en el arreglo. */
+        static boolean existeCliente(Cliente[] cs, int id) {
+            for (Cliente c : cs) if (c != null && c.getId() == id) return true;
+            return false;
+        }
+
+        /** Busca un asiento por ID dentro del plano base. */
+        static Asiento buscar(Asiento[] as, int id) {
+            for (Asiento a : as) if (a != null && a.getId() == id) return a;
+            return null;
+        }
+
+        /** Indica si un asiento está ocupado en un evento. */
+        static boolean ocupado(Evento e, int asientoId) {
+            return e.ocupado(asientoId);
+        }
+
+        /** Indica si todos los asientos pasados están libres en el evento. */
+        static boolean libres(Evento e, int[] ids) {
+            for (int id : ids)
+                if (ocupado(e, id)) return false;
+            return true;
+        }
+
+        /**
+         * Invariante de ocupación: el total de asientos ocupados
+         * (sumado por ventas) no debe contener duplicados.
+         */
+        static boolean invariante(Evento e) {
+            Set<Integer> set = new HashSet<>();
+            int suma = 0;
+            for (Venta v : e.getVentas()) {
+                for (int id : v.getAsientosIds()) set.add(id);
+                suma += v.cantidadAsientos();
+            }
+            return set.size() == suma;
+        }
+    }
+
+    /**
+     * Inventario de asientos compartido entre procesos del mismo equipo,
+     * sobre un archivo mapeado en memoria. Cada asiento es una palabra de
+     * 64 bits que se reclama con CAS (VarHandle sobre el MappedByteBuffer):
+     *   LIBRE (0) -> RESERVADO|generación|slot -> VENDIDO|pid|venta -> LIBRE.
+     * Cada reserva abre un slot de transacción (ABIERTA|generación|pid);
+     * el commit es un único CAS del slot a CONFIRMADA. Si un proceso
+     * muere, quien encuentre su slot lo completa (CONFIRMADA) o lo deshace
+     * (ABIERTA). La generación del slot sube cada vez que se toma, así la
+     * marca de un asiento reservado no se confunde con la de una reserva
+     * posterior en el mismo slot.
+     *
+     * Formato (longs, orden nativo): cabecera [mágico, versión, eventos,
+     * asientos], SLOTS x [estado|pid, eventoId], y por evento un bloque
+     * de (asientos + 1) palabras indexado por ID de asiento.
+     */
+    static class InventarioCompartido implements AutoCloseable {
+        private static final VarHandle PALABRA =
+                MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+        private static final long MAGICO = 0x54454154524F4D4FL;   // "TEATROMO"
+        private static final int VERSION = 3, CABECERA = 4, SLOTS = 64, PALABRAS_SLOT = 3;
+
+        // Estados (2 bits altos) de asientos y slots
+        private static final long LIBRE = 0, RESERVADO = 1L << 62, VENDIDO = 2L << 62,
+                                  ABIERTA = 1L << 62, CONFIRMADA = 2L << 62, ESTADO = 3L << 62;
+        private static final long MASC_PID = 0xFFFF_FFFFL, MASC_VENTA = (1L << 30) - 1,
+                                  MASC_GEN = (1L << 30) - 1, MASC_SLOT = SLOTS - 1;
+
+        /** Reserva en curso: slot de transacción (con su palabra) y asientos reclamados. */
+        static class Reserva {
+            private final int slot, eventoId;
+            private final long palabra;          // ABIERTA|generación|pid
+            private final int[] ids;
+
+            Reserva(int slot, long palabra, int eventoId, int[] ids) {
+                this.slot = slot;
+                this.palabra = palabra;
+                this.eventoId = eventoId;
+                this.ids = ids;
+            }
+        }
+
+        private final FileChannel canal;
+        private final MappedByteBuffer mapa;
+        private final int maxEventos, asientosPorEvento;
+        private final long pid = ProcessHandle.current().pid() & MASC_PID;
+        private final long inicio = inicioDe(ProcessHandle.current());
+
+        private InventarioCompartido(FileChannel canal, MappedByteBuffer mapa, int maxEventos, int asientos) {
+            this.canal = canal;
+            this.mapa = mapa;
+            this.maxEventos = maxEventos;
+            this.asientosPorEvento = asientos;
+        }
+
+        /**
+         * Abre (o crea) el archivo de inventario. La creación se hace bajo
+         * un bloqueo de archivo; si ya existe, su cabecera debe coincidir.
+         */
+        static InventarioCompartido abrir(Path ruta, int maxEventos, int asientosPorEvento) throws IOException {
+            long bytes = 8L * (CABECERA + (long) PALABRAS_SLOT * SLOTS + (long) maxEventos * (asientosPorEvento + 1));
+            FileChannel ch = FileChannel.open(ruta, StandardOpenOption.CREATE,
+                                              StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                MappedByteBuffer m;
+                FileLock lock = ch.lock();
+                try {
+                    boolean nuevo = ch.size() == 0;
+                    m = ch.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                    if (nuevo) {
+                        PALABRA.setVolatile(m, 8, (long) VERSION);
+                        PALABRA.setVolatile(m, 16, (long) maxEventos);
+                        PALABRA.setVolatile(m, 24, (long) asientosPorEvento);
+                        PALABRA.setVolatile(m, 0, MAGICO);
+                        m.force();
+                    }
+                    Check.require((long) PALABRA.getVolatile(m, 0) == MAGICO
+                                  && (long) PALABRA.getVolatile(m, 8) == VERSION
+                                  && (long) PALABRA.getVolatile(m, 16) == maxEventos
+                                  && (long) PALABRA.getVolatile(m, 24) == asientosPorEvento,
+                                  "Inventario incompatible: " + ruta);
+                } finally {
+                    lock.release();
+                }
+                InventarioCompartido inv = new InventarioCompartido(ch, m, maxEventos, asientosPorEvento);
+                inv.recuperar();
+                return inv;
+            } catch (IOException | RuntimeException ex) {
+                ch.close();
+                throw ex;
+            }
+        }
+
+        int getMaxEventos() { return maxEventos; }
+        int getAsientosPorEvento() { return asientosPorEvento; }
+
+        /**
+         * Slot: [estado|generación|pid, generación|evento, arranque del dueño (ms)].
+         * La segunda y tercera palabra se escriben después de tomar el slot;
+         * la generación de la segunda indica que ya están publicadas.
+         */
+        private int offSlot(int slot) { return 8 * (CABECERA + PALABRAS_SLOT * slot); }
+
+        private int offAsiento(int eventoId, int id) {
+            Check.require(eventoId >= 1 && eventoId <= maxEventos, "Evento fuera del inventario: " + eventoId);
+            Check.require(id >= 1 && id <= asientosPorEvento, "Asiento fuera del inventario: " + id);
+            return 8 * (CABECERA + PALABRAS_SLOT * SLOTS + (eventoId - 1) * (asientosPorEvento + 1) + id);
+        }
+
+        private static boolean cas(MappedByteBuffer m, int off, long esperado, long nuevo) {
+            return PALABRA.compareAndSet(m, off, esperado, nuevo);
+        }
+
+        /** Generación guardada en la palabra de un slot. */
+        private static long generacion(long slotPalabra) { return (slotPalabra >>> 32) & MASC_GEN; }
+
+        /** Marca de asiento reservado por el slot en esa generación. */
+        private static long marca(int slot, long generacion) { return RESERVADO | (generacion << 6) | slot; }
+
+        /** Slot libre que conserva su generación. */
+        private static long slotLibre(long slotPalabra) { return slotPalabra & (MASC_GEN << 32); }
+
+        /** Instante de arranque del proceso (ms), o 0 si el sistema no lo informa. */
+        private static long inicioDe(ProcessHandle h) {
+            return h.info().startInstant().map(i -> i.toEpochMilli()).orElse(0L);
+        }
+
+        /**
+         * Si el dueño de un slot sigue vivo. El PID solo no alcanza porque
+         * el sistema lo reutiliza: también debe coincidir el arranque
+         * guardado al tomar el slot (0 = desconocido, se usa solo el PID).
+         */
+        private static boolean vivo(long pid, long inicio) {
+            Optional<ProcessHandle> h = ProcessHandle.of(pid);
+            if (h.isEmpty() || !h.get().isAlive()) return false;
+            long actual = inicio == 0 ? 0 : inicioDe(h.get());
+            return actual == 0 || actual == inicio;
+        }
+
+        /**
+         * Reclama todos los asientos o ninguno.
+         * @return la reserva, o null si alguno ya está tomado.
+         */
+        Reserva reservar(int eventoId, int[] ids) {
+            int[] orden = ids.clone();
+            Arrays.sort(orden);                  // orden fijo: sin bloqueos cruzados
+            int slot = tomarSlot(eventoId);
+            long sw = (long) PALABRA.getVolatile(mapa, offSlot(slot));
+            long marca = marca(slot, generacion(sw));
+            for (int i = 0; i < orden.length; i++) {
+                int off = offAsiento(eventoId, orden[i]);
+                while (!cas(mapa, off, LIBRE, marca)) {
+                    long w = (long) PALABRA.getVolatile(mapa, off);
+                    // Reserva huérfana de un proceso caído: se resuelve y se reintenta
+                    if ((w & ESTADO) == RESERVADO && resolverSlot((int) (w & MASC_SLOT))) continue;
+                    if (w == LIBRE) continue;
+                    for (int j = 0; j < i; j++) cas(mapa, offAsiento(eventoId, orden[j]), marca, LIBRE);
+                    PALABRA.setVolatile(mapa, offSlot(slot), slotLibre(sw));
+                    return null;
+                }
+            }
+            return new Reserva(slot, sw, eventoId, orden);
+        }
+
+        /**
+         * Confirma la reserva (punto de commit) y la convierte en venta.
+         * Si algún asiento ya no lleva la marca de la reserva, deshace
+         * todo y lanza IllegalStateException (la venta no debe registrarse).
+         */
+        void confirmar(Reserva r, int ventaId) {
+            int os = offSlot(r.slot);
+            long marca = marca(r.slot, generacion(r.palabra));
+            for (int id : r.ids) {
+                if ((long) PALABRA.getVolatile(mapa, offAsiento(r.eventoId, id)) != marca) {
+                    cancelar(r);
+                    throw new IllegalStateException("Reserva perdida en el inventario compartido");
+                }
+            }
+            long confirmada = (r.palabra & ~ESTADO) | CONFIRMADA;
+            if (!cas(mapa, os, r.palabra, confirmada)) {
+                cancelar(r);
+                throw new IllegalStateException("Reserva no vigente");
+            }
+            long vendido = VENDIDO | (pid << 30) | (ventaId & MASC_VENTA);
+            for (int i = 0; i < r.ids.length; i++) {
+                if (!cas(mapa, offAsiento(r.eventoId, r.ids[i]), marca, vendido)) {
+                    for (int j = 0; j < i; j++) cas(mapa, offAsiento(r.eventoId, r.ids[j]), vendido, LIBRE);
+                    for (int j = i + 1; j < r.ids.length; j++) cas(mapa, offAsiento(r.eventoId, r.ids[j]), marca, LIBRE);
+                    PALABRA.setVolatile(mapa, os, slotLibre(r.palabra));
+                    throw new IllegalStateException("Reserva perdida en el inventario compartido");
+                }
+            }
+            PALABRA.setVolatile(mapa, os, slotLibre(r.palabra));
+        }
+
+        /** Deshace una reserva no confirmada. */
+        void cancelar(Reserva r) {
+            long marca = marca(r.slot, generacion(r.palabra));
+            for (int id : r.ids) cas(mapa, offAsiento(r.eventoId, id), marca, LIBRE);
+            PALABRA.setVolatile(mapa, offSlot(r.slot), slotLibre(r.palabra));
+        }
+
+        /** Libera asientos vendidos por este proceso (baja de venta). */
+        void liberar(int eventoId, int[] ids) {
+            for (int id : ids) {
+                int off = offAsiento(eventoId, id);
+                long w = (long) PALABRA.getVolatile(mapa, off);
+                if ((w & ESTADO) == VENDIDO && ((w >>> 30) & MASC_PID) == pid) cas(mapa, off, w, LIBRE);
+            }
+        }
+
+        /** Si un asiento está vendido o reservado por cualquier proceso. */
+        boolean ocupado(int eventoId, int id) {
+            return (long) PALABRA.getVolatile(mapa, offAsiento(eventoId, id)) != LIBRE;
+        }
+
+        /** Ocupación global del evento (vendidos y reservados por cualquier proceso). */
+        BitSet ocupacion(int eventoId) {
+            BitSet bs = new BitSet();
+            for (int id = 1; id <= asientosPorEvento; id++)
+                if ((long) PALABRA.getVolatile(mapa, offAsiento(eventoId, id)) != LIBRE) bs.set(id);
+            return bs;
+        }
+
+        /** Asientos en estado VENDIDO (diagnóstico / verificación). */
+        int vendidos(int eventoId) {
+            int n = 0;
+            for (int id = 1; id <= asientosPorEvento; id++)
+                if (((long) PALABRA.getVolatile(mapa, offAsiento(eventoId, id)) & ESTADO) == VENDIDO) n++;
+            return n;
+        }
+
+        /** Resuelve los slots de procesos caídos. @return slots resueltos. */
+        int recuperar() {
+            int n = 0;
+            for (int s = 0; s < SLOTS; s++) if (resolverSlot(s)) n++;
+            return n;
+        }
+
+        private int tomarSlot(int eventoId) {
+            for (int intento = 0; intento < 1000; intento++) {
+                for (int s = 0; s < SLOTS; s++) {
+                    long w = (long) PALABRA.getVolatile(mapa, offSlot(s));
+                    if ((w & ESTADO) != LIBRE) continue;
+                    long gen = (generacion(w) + 1) & MASC_GEN;
+                    if (cas(mapa, offSlot(s), w, ABIERTA | (gen << 32) | pid)) {
+                        PALABRA.setVolatile(mapa, offSlot(s) + 16, inicio);
+                        PALABRA.setVolatile(mapa, offSlot(s) + 8, (gen << 32) | eventoId);   // publica
+                        return s;
+                    }
+                }
+                if (recuperar() == 0) Thread.onSpinWait();
+            }
+            throw new IllegalStateException("Inventario saturado: sin slots de transaccion");
+        }
+
+        /**
+         * Si el slot pertenece a un proceso muerto, completa (CONFIRMADA)
+         * o deshace (ABIERTA) sus asientos y lo libera. Solo toca asientos
+         * con la marca de esa generación: si otro proceso ya lo resolvió y
+         * el slot se volvió a tomar, las reservas nuevas quedan intactas.
+         * Un slot aún sin publicar no tiene asientos marcados: se libera
+         * solo si su PID ya no existe (sin arranque no hay cómo distinguir
+         * un PID reutilizado, y el dueño puede estar entre ambas escrituras).
+         * @return true si el slot quedó libre gracias a esta llamada.
+         */
+        private boolean resolverSlot(int s) {
+            int os = offSlot(s);
+            long w = (long) PALABRA.getVolatile(mapa, os);
+            if ((w & ESTADO) == LIBRE) return false;
+            long datos = (long) PALABRA.getVolatile(mapa, os + 8);
+            long arranque = (long) PALABRA.getVolatile(mapa, os + 16);
+            if ((long) PALABRA.getVolatile(mapa, os) != w) return false;     // ya resuelto por otro
+            boolean publicado = ((datos >>> 32) & MASC_GEN) == generacion(w);
+            if (vivo(w & MASC_PID, publicado ? arranque : 0)) return false;
+            int ev = publicado ? (int) datos : 0;
+            if (ev >= 1 && ev <= maxEventos) {
+                long marca = marca(s, generacion(w));
+                long destino = ((w & ESTADO) == CONFIRMADA) ? VENDIDO | ((w & MASC_PID) << 30) : LIBRE;
+                for (int id = 1; id <= asientosPorEvento; id++)
+                    cas(mapa, offAsiento(ev, id), marca, destino);
+            }
+            return cas(mapa, os, w, slotLibre(w));
+        }
+
+        @Override
+        public void close() throws IOException {
+            mapa.force();
+            canal.close();
+        }
+    }
+
+    /**
+     * Ubicación de grupos: busca la disposición más compacta de N asientos
+     * libres. Primero un tramo en una sola fila; si no existe, un bloque
+     * alineado que se apila en filas adyacentes (ej. 6 = 2 filas de 3).
+     * Trabaja sobre el resumen de tramos libres por fila (inicio, largo),
+     * sin enumerar combinaciones de asientos: el costo depende de la
+     * cantidad de tramos, no del tamaño de la sala.
+     */
+    static class UbicadorGrupos {
+
+        /** Resultado: IDs elegidos y forma del bloque. */
+        static class Ubicacion {
+            private final int[] ids;
+            private final int filas, columnas;
+
+            Ubicacion(int[] ids, int filas, int columnas) {
+                this.ids = ids;
+                this.filas = filas;
+                this.columnas = columnas;
+            }
+
+            int[] getIds() { return ids; }
+            int getFilas() { return filas; }
+            int getColumnas() { return columnas; }
+
+            /** Dispersión: filas extra + columnas extra del bloque. */
+            int dispersion() { return (filas - 1) + (columnas - 1); }
+
+            @Override
+            public String toString() {
+                return (filas == 1 ? "1 fila" : "bloque de " + filas + " filas") +
+                       " x " + columnas + " columnas (dispersion " + dispersion() + ")";
+            }
+        }
+
+        /**
+         * Tramos libres de cada fila como pares {inicio, fin} de columnas
+         * (fin exclusivo), obtenidos saltando por el bitset de ocupación.
+         */
+        static int[][][] tramosLibres(Evento e) {
+            int F = e.getFilas(), K = e.getColumnas();
+            BitSet occ = e.getOcupacion();
+            int[][][] res = new int[F][][];
+            List<int[]> fila = new ArrayList<>();
+            for (int f = 0; f < F; f++) {
+                fila.clear();
+                int base = f * K + 1, fin = base + K;
+                int libre = occ.nextClearBit(base);
+                while (libre < fin) {
+                    int hasta = Math.min(occ.nextSetBit(libre) < 0 ? fin : occ.nextSetBit(libre), fin);
+                    fila.add(new int[]{libre - base, hasta - base});
+                    libre = occ.nextClearBit(hasta);
+                }
+                res[f] = fila.toArray(new int[0][]);
+            }
+            return res;
+        }
+
+        /** Mejor ubicación para N asientos o {@code null} si no hay bloque posible. */
+        static Ubicacion ubicar(Evento e, int n) {
+            Check.require(n >= 1, "Cantidad inválida");
+            int F = e.getFilas(), K = e.getColumnas();
+            int[][][] tramos = tramosLibres(e);
+
+            // 1) Un solo tramo: el más cercano al centro de la fila
+            int mejorF = -1, mejorC = -1, mejorDesvio = Integer.MAX_VALUE;
+            for (int f = 0; f < F; f++)
+                for (int[] t : tramos[f]) {
+                    if (t[1] - t[0] < n) continue;
+                    int c = centrado(t[0], t[1], n, K);
+                    int desvio = Math.abs(2 * c + n - K);
+                    if (desvio < mejorDesvio) { mejorDesvio = desvio; mejorF = f; mejorC = c; }
+                }
+            if (mejorF >= 0) return bloque(e, mejorF, mejorC, 1, n, n);
+
+            // 2) Bloques apilados: k filas adyacentes con un tramo común de ancho ceil(n/k)
+            Ubicacion mejor = null;
+            int mejorScore = Integer.MAX_VALUE;
+            for (int f0 = 0; f0 < F; f0++) {
+                List<int[]> comun = new ArrayList<>(Arrays.asList(tramos[f0]));
+                for (int k = 2; k <= n && f0 + k <= F && !comun.isEmpty(); k++) {
+                    comun = interseccion(comun, tramos[f0 + k - 1]);
+                    int ancho = (n + k - 1) / k;
+                    int disp = (k - 1) + (ancho - 1);
+                    if (mejor != null && disp > mejorScore / (2 * K + 1)) continue;
+                    for (int[] t : comun) {
+                        if (t[1] - t[0] < ancho) continue;
+                        int c = centrado(t[0], t[1], ancho, K);
+                        int score = disp * (2 * K + 1) + Math.abs(2 * c + ancho - K);
+                        if (score < mejorScore) {
+                            mejorScore = score;
+                            mejor = bloque(e, f0, c, k, ancho, n);
+                        }
+                    }
+                }
+            }
+            return mejor;
+        }
+
+        /**
+         * Mejor tramo de N en una sola fila (el más centrado).
+         * @return columna inicial o -1 si la fila no tiene N libres seguidos.
+         */
+        static int tramoEnFila(Evento e, int f, int n) {
+            return tramoEnSegmento(e, f, n, 0, e.getColumnas() - 1);
+        }
+
+        /**
+         * Igual que {@link #tramoEnFila} pero dentro de las columnas
+         * [c0, c1] (una zona), centrado respecto de ese segmento.
+         */
+        static int tramoEnSegmento(Evento e, int f, int n, int c0, int c1) {
+            return tramoEnSegmento(e, e.getOcupacion(), f, n, c0, c1);
+        }
+
+        /** Igual, sobre una ocupación dada (p. ej. la del inventario compartido). */
+        static int tramoEnSegmento(Evento e, BitSet occ, int f, int n, int c0, int c1) {
+            int K = c1 - c0 + 1, base = e.getPlano().id(f, c0), fin = base + K;
+            int mejor = -1, mejorDesvio = Integer.MAX_VALUE;
+            for (int libre = occ.nextClearBit(base); libre < fin; ) {
+                int ocup = occ.nextSetBit(libre);
+                int hasta = (ocup < 0 || ocup > fin) ? fin : ocup;
+                if (hasta - libre >= n) {
+                    int c = centrado(libre - base, hasta - base, n, K);
+                    int desvio = Math.abs(2 * c + n - K);
+                    if (desvio < mejorDesvio) { mejorDesvio = desvio; mejor = c0 + c; }
+                }
+                libre = occ.nextClearBit(hasta);
+            }
+            return mejor;
+        }
+
+        /** Columna inicial dentro de [ini, fin) lo más centrada posible en la sala. */
+        private static int centrado(int ini, int fin, int ancho, int K) {
+            int ideal = (K - ancho) / 2;
+            return Math.max(ini, Math.min(ideal, fin - ancho));
+        }
+
+        /** Intersección de dos listas ordenadas de tramos {inicio, fin}. */
+        private static List<int[]> interseccion(List<int[]> a, int[][] b) {
+            List<int[]> r = new ArrayList<>();
+            int i = 0, j = 0;
+            while (i < a.size() && j < b.length) {
+                int ini = Math.max(a.get(i)[0], b[j][0]);
+                int fin = Math.min(a.get(i)[1], b[j][1]);
+                if (ini < fin) r.add(new int[]{ini, fin});
+                if (a.get(i)[1] < b[j][1]) i++; else j++;
+            }
+            return r;
+        }
+
+        /** Reparte N asientos en k filas desde (f0, c0): las primeras filas llevan el ancho completo. */
+        private static Ubicacion bloque(Evento e, int f0, int c0, int k, int ancho, int n) {
+            int[] ids = new int[n];
+            int llenas = n - k * (ancho - 1), idx = 0;
+            for (int f = 0; f < k; f++) {
+                int enFila = f < llenas ? ancho : ancho - 1;
+                for (int c = 0; c < enFila; c++) ids[idx++] = e.getPlano().id(f0 + f, c0 + c);
+            }
+            return new Ubicacion(ids, k, ancho);
+        }
+    }
+
+
+    /* ================== NÚCLEO DE NEGOCIO ================== */
+
+    /**
+     * Núcleo lógico del sistema:
+     * - Mantiene los arreglos de clientes y ventas.
+     * - Mantiene lista de eventos.
+     * - Genera el plano base de asientos y permite renderizar vistas.
+     * Ventas, anulaciones, altas/bajas de eventos y las lecturas que
+     * recorren ventas u ocupación (planos, reportes, recaudación) son
+     * sincronizadas: pueden llegar desde varios hilos (sala de espera).
+     * Los clientes y los getters que exponen listas vivas (getEventos,
+     * getClientes, getArchivados) son para el hilo del menú.
+     */
+    static class TeatroMoroCore {
+        // Estructuras principales (arreglos dinámicos + lista)
+        private Cliente[] clientes;
+        private Venta[] ventas;
+        private final Asiento[] asientosBase;
+        private final List<Evento> eventos = new ArrayList<>();
+        private final MotorDescuentos motor = MotorDescuentos.porDefecto();
+        private InventarioCompartido inventario;   // null = solo memoria local
+        private final IndiceVentas indice = new IndiceVentas();
+        private final MapaLargoInt comprasPorCliente = new MapaLargoInt();   // (evento, cliente) -> asientos
+        private int limitePorClienteGeneral;                                 // 0 = sin límite
+        private volatile EmisorTickets emisor;                               // null = sin tickets
+        private final ConcurrentLinkedQueue<EmisorTickets.Trabajo> porEmitir = new ConcurrentLinkedQueue<>();
+        private final FeedAsientos feed = new FeedAsientos(4096);           // cambios para pantallas
+        private final CacheIdempotencia solicitudes = new CacheIdempotencia(10_000, 15 * 60_000L);
+
+        // Funciones archivadas (solo lectura) y sus índices: venta -> archivo+1, cliente -> ventas
+        private final List<EventoArchivado> archivados = new ArrayList<>();
+        private final MapaLargoInt archivoPorVenta = new MapaLargoInt();
+        private final Map<Integer, ListaInt> archivadasPorCliente = new HashMap<>();
+        private long recaudacionArchivada;
+
+        // Mapa de calor (plano base): asientos vendidos por butaca y eventos
+        // por forma [filas][columnas]; así la tasa se lee sin recorrer ventas.
+        private final int[] vendidosPorButaca;
+        private final int[][] eventosPorForma;
+
+        // Autoincrementales
+        private int nextClienteId = 1, nextVentaId = 1, nextEventoId = 1, nextSerieId = 1;
+
+        // Dimensiones del plano base
+        private final int baseFilas, baseColumnas;
+
+        /**
+         * @param capClientes capacidad inicial del arreglo de clientes
+         * @param filas       filas del plano base del teatro
+         * @param columnas    columnas del plano base del teatro
+         * @param capVentas   capacidad inicial del arreglo de ventas
+         * @param precioInicial precio base (centavos) para el "Evento Inicial"
+         */
+        TeatroMoroCore(int capClientes, int filas, int columnas, int capVentas, long precioInicial) {
+            Check.require(filas >= 1 && filas <= MAX_FILAS_SALA && columnas >= 1 && columnas <= MAX_COLUMNAS_SALA
+                          && filas * columnas <= MAX_ASIENTOS_SALA,
+                          "Sala invalida: hasta " + MAX_FILAS_SALA + " filas, " + MAX_COLUMNAS_SALA +
+                          " columnas y " + MAX_ASIENTOS_SALA + " asientos");
+            this.clientes = new Cliente[capClientes];
+            this.ventas = new Venta[capVentas];
+            this.baseFilas = filas;
+            this.baseColumnas = columnas;
+            this.asientosBase = generarAsientos(filas, columnas);
+            this.vendidosPorButaca = new int[filas * columnas];
+            this.eventosPorForma = new int[filas + 1][columnas + 1];
+            // Evento inicial para tener datos listos para operar
+            agregarEvento(new Evento(nextEventoId++, "Evento Inicial", filas, columnas, precioInicial));
+        }
+
+        /**
+         * Genera el plano base de asientos etiquetado (A1..), con IDs secuenciales.
+         */
+        private Asiento[] generarAsientos(int filas, int columnas) {
+            Asiento[] base = new Asiento[filas * columnas];
+            int id = 1;
+            for (int f = 0; f < filas; f++) {
+                for (int c = 0; c < columnas; c++) {
+                    String etiqueta = PlanoEvento.nombreFila(f) + (c + 1);
+                    base[(f * columnas) + c] = new Asiento(id++, f, c, etiqueta);
+                }
+            }
+            return base;
+        }
+
+        /* ====== CLIENTES (CRUD con arreglo dinámico) ====== */
+
+        /**
+         * Alta de cliente; expande el arreglo si no hay espacio.
+         */
+        Cliente altaCliente(String nombre, TipoCliente tipo) {
+            Check.require(Check.texto(nombre), "Nombre invalido");
+            Cliente n = new Cliente(nextClienteId++, nombre.trim(), tipo);
+            insertarCliente(n);
+            return n;
+        }
+
+        /** Inserta cliente, ampliando el arreglo si está lleno. */
+        private void insertarCliente(Cliente c) {
+            for (int i = 0; i < clientes.length; i++)
+                if (clientes[i] == null) { clientes[i] = c; return; }
+            clientes = Arrays.copyOf(clientes, clientes.length + Math.max(4, clientes.length / 2));
+            insertarCliente(c);
+        }
+
+        /**
+         * Actualiza nombre y/o tipo de un cliente existente.
+         * @return true si se actualizó, false si no se encontró el ID.
+         */
+        boolean actualizarCliente(int id, String nom, TipoCliente t) {
+            for (int i = 0; i < clientes.length; i++) {
+                var c = clientes[i];
+                if (c != null && c.getId() == id) {
+                    if (Check.texto(nom)) c.setNombre(nom.trim());
+                    if (t != null) c.setTipo(t);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Baja lógica de cliente (deja hueco null en el arreglo).
+         */
+        boolean bajaCliente(int id) {
+            for (int i = 0; i < clientes.length; i++)
+                if (clientes[i] != null && clientes[i].getId() == id) {
+                    clientes[i] = null;
+                    return true;
+                }
+            return false;
+        }
+
+        /**
+         * Compacta el arreglo eliminando los huecos null intermedios.
+         */
+        void compactarClientes() {
+            Cliente[] n = new Cliente[clientes.length];
+            int k = 0;
+            for (Cliente c : clientes) if (c != null) n[k++] = c;
+            clientes = n;
+        }
+
+        /** Busca cliente por ID. */
+        Cliente buscarClientePorId(int id) {
+            for (Cliente c : clientes)
+                if (c != null && c.getId() == id) return c;
+            return null;
+        }
+
+        Cliente[] getClientes() { return clientes; }
+
+        /** Cambia el nivel de socio de un cliente existente. */
+        boolean cambiarNivelSocio(int id, NivelSocio n) {
+            Cliente c = buscarClientePorId(id);
+            if (c == null || n == null) return false;
+            c.setNivel(n);
+            return true;
+        }
+
+        /* ====== EVENTOS (lista) ====== */
+
+        /**
+         * Crea un evento nuevo validando que no exceda el plano base.
+         * @param precio precio base en centavos
+         */
+        synchronized Evento crearEvento(String nombre, int filas, int columnas, long precio) {
+            Check.require(filas >= 1 && filas <= baseFilas, "Filas 1-" + baseFilas);
+            Check.require(columnas >= 1 && columnas <= baseColumnas, "Columnas 1-" + baseColumnas);
+            Check.require(precio >= 0, "Precio invalido");
+            validarCupoInventario(1);
+            Evento e = new Evento(nextEventoId++, nombre, filas, columnas, precio);
+            agregarEvento(e);
+            return e;
+        }
+
+        /**
+         * Crea una serie de funciones recurrentes a partir de un evento
+         * plantilla: todas comparten un único {@link PlanoEvento}, por lo
+         * que cada función extra solo agrega su ocupación.
+         * @param primera     fecha/hora de la primera función
+         * @param cadaDias    días entre funciones (1 = todas las noches)
+         * @param funciones   cantidad de funciones
+         */
+        synchronized List<Evento> crearSerie(String nombre, int filas, int columnas, long precio,
+                                LocalDateTime primera, int cadaDias, int funciones) {
+            Check.require(filas >= 1 && filas <= baseFilas, "Filas 1-" + baseFilas);
+            Check.require(columnas >= 1 && columnas <= baseColumnas, "Columnas 1-" + baseColumnas);
+            Check.require(precio >= 0, "Precio invalido");
+            Check.require(primera != null && cadaDias >= 1 && funciones >= 1, "Serie invalida");
+            validarCupoInventario(funciones);
+            PlanoEvento plano = new PlanoEvento(filas, columnas, precio);
+            int serie = nextSerieId++;
+            List<Evento> creados = new ArrayList<>(funciones);
+            for (int i = 0; i < funciones; i++) {
+                Evento e = new Evento(nextEventoId++, nombre, plano, primera.plusDays((long) i * cadaDias), serie);
+                agregarEvento(e);
+                creados.add(e);
+            }
+            return creados;
+        }
+
+        /**
+         * Con inventario compartido, los IDs de evento indexan el archivo:
+         * se rechaza crear eventos que no caben en vez de fallar al vender.
+         */
+        private void validarCupoInventario(int nuevos) {
+            if (inventario == null) return;
+            Check.require(nextEventoId - 1L + nuevos <= inventario.getMaxEventos(),
+                          "El inventario compartido admite " + inventario.getMaxEventos() + " eventos");
+        }
+
+        /** Registra el evento en la lista y en el conteo por forma del mapa de calor. */
+        private void agregarEvento(Evento e) {
+            eventos.add(e);
+            eventosPorForma[e.getFilas()][e.getColumnas()]++;
+        }
+
+        /** Obtiene evento por ID (o null si no existe). */
+        synchronized Evento obtenerEventoPorId(int id) {
+            for (Evento e : eventos) if (e.getId() == id) return e;
+            return null;
+        }
+
+        /** Renombra evento si existe. */
+        synchronized boolean renombrarEvento(int id, String n) {
+            var e = obtenerEventoPorId(id);
+            if (e == null) return false;
+            if (Check.texto(n)) e.setNombre(n.trim());
+            return true;
+        }
+
+        /** Cambia precio base (centavos) si el evento existe. */
+        synchronized boolean cambiarPrecioEvento(int id, long p) {
+            Check.require(p >= 0, "Precio invalido");
+            var e = obtenerEventoPorId(id);
+            if (e == null) return false;
+            e.setPrecioBase(p);
+            return true;
+        }
+
+        /**
+         * Elimina un evento solo si no tiene ventas asociadas (seguridad
+         * referencial mínima sin sistema de tickets persistentes).
+         */
+        synchronized boolean eliminarEventoSinVentas(int id) {
+            var e = obtenerEventoPorId(id);
+            if (e == null || !e.getVentas().isEmpty()) return false;
+            if (!eventos.remove(e)) return false;
+            eventosPorForma[e.getFilas()][e.getColumnas()]--;
+            return true;
+        }
+
+        List<Evento> getEventos() { return eventos; }
+
+        /* ====== ARCHIVO DE FUNCIONES REALIZADAS ====== */
+
+        /**
+         * Archiva una función ya realizada: la congela en un
+         * {@link EventoArchivado} y suelta el {@code Evento}, sus ventas,
+         * su historial y sus entradas en el arreglo global y los índices.
+         * Las consultas de ventas, la recaudación de temporada y el mapa
+         * de calor la siguen incluyendo; ya no admite ventas ni anulaciones.
+         */
+        synchronized boolean archivarEvento(int id) {
+            Evento e = obtenerEventoPorId(id);
+            if (e == null) return false;
+            Check.require(e.getFuncion() != null && e.getFuncion().isBefore(LocalDateTime.now()),
+                          "Solo se archivan funciones ya realizadas");
+            EventoArchivado a = new EventoArchivado(e);
+            int idx = archivados.size();
+            archivados.add(a);
+            for (Venta v : e.getVentas()) {
+                int pos = indice.quitar(v);
+                if (pos >= 0 && pos < ventas.length && ventas[pos] == v) ventas[pos] = null;
+                comprasPorCliente.sumar(MapaLargoInt.clave(v.getEventoId(), v.getClienteId()),
+                                        -v.cantidadAsientos());
+                archivoPorVenta.sumar(v.getId(), idx + 1);
+                archivadasPorCliente.computeIfAbsent(v.getClienteId(), k -> new ListaInt()).agregar(v.getId());
+            }
+            recaudacionArchivada += a.getRecaudacion();
+            eventos.remove(e);   // sigue contando en eventosPorForma: el mapa de calor es de la temporada
+            return true;
+        }
+
+        /** Archiva todas las funciones con fecha anterior a {@code limite}. @return cuántas. */
+        synchronized int archivarRealizadas(LocalDateTime limite) {
+            LocalDateTime tope = limite.isAfter(LocalDateTime.now()) ? LocalDateTime.now() : limite;
+            List<Integer> ids = new ArrayList<>();
+            for (Evento e : eventos)
+                if (e.getFuncion() != null && e.getFuncion().isBefore(tope)) ids.add(e.getId());
+            for (int id : ids) archivarEvento(id);
+            return ids.size();
+        }
+
+        /** Función archivada por ID (o null). */
+        synchronized EventoArchivado obtenerArchivado(int id) {
+            for (EventoArchivado a : archivados) if (a.getId() == id) return a;
+            return null;
+        }
+
+        List<EventoArchivado> getArchivados() { return archivados; }
+
+        /** Venta archivada por ID (reconstruida) o null. */
+        private Venta ventaArchivada(int id) {
+            int idx = archivoPorVenta.get(id) - 1;
+            if (idx < 0) return null;
+            EventoArchivado a = archivados.get(idx);
+            int i = a.posicion(id);
+            return i < 0 ? null : a.venta(i);
+        }
+
+        /* ====== LÍMITES POR CLIENTE ====== */
+
+        /** Límite general de asientos por cliente y evento (0 = sin límite). */
+        void setLimitePorClienteGeneral(int l) {
+            Check.require(l >= 0, "Limite invalido");
+            this.limitePorClienteGeneral = l;
+        }
+
+        int getLimitePorClienteGeneral() { return limitePorClienteGeneral; }
+
+        /** Límite propio de un evento (0 = usa el general). */
+        boolean configurarLimiteCliente(int eventoId, int limite) {
+            Check.require(limite >= 0, "Limite invalido");
+            Evento e = obtenerEventoPorId(eventoId);
+            if (e == null) return false;
+            e.setLimitePorCliente(limite);
+            return true;
+        }
+
+        /** Límite efectivo para el evento (0 = sin límite). */
+        int limiteCliente(Evento e) {
+            return e.getLimitePorCliente() > 0 ? e.getLimitePorCliente() : limitePorClienteGeneral;
+        }
+
+        /** Asientos vigentes comprados por el cliente en el evento. */
+        synchronized int asientosDeCliente(int eventoId, int clienteId) {
+            return comprasPorCliente.get(MapaLargoInt.clave(eventoId, clienteId));
+        }
+
+        MotorDescuentos getMotor() { return motor; }
+
+        /**
+         * Conecta un inventario compartido: cada venta reclama además sus
+         * asientos en el archivo común, y el plano muestra la ocupación de
+         * todos los procesos. Los IDs de evento deben coincidir entre cajas;
+         * el archivo debe cubrir el plano base y los eventos ya creados.
+         */
+        void usarInventario(InventarioCompartido inv) {
+            Check.require(inv.getAsientosPorEvento() >= baseFilas * baseColumnas
+                          && nextEventoId - 1 <= inv.getMaxEventos(), "Inventario menor que el catalogo");
+            this.inventario = inv;
+        }
+
+        /** Asientos del plano base (tamaño por evento del inventario compartido). */
+        int capacidadBase() { return baseFilas * baseColumnas; }
+
+        int getBaseFilas() { return baseFilas; }
+        int getBaseColumnas() { return baseColumnas; }
+
+        InventarioCompartido getInventario() { return inventario; }
+
+        /**
+         * Conecta el emisor de tickets: cada venta se anota en su diario
+         * antes del commit (si no se puede anotar, la venta se rechaza) y,
+         * ya confirmada, se encola; si la cola está llena, la venta espera
+         * (contrapresión) en vez de perder el trabajo. Esa espera ocurre
+         * fuera del monitor del núcleo.
+         */
+        void usarEmisor(EmisorTickets em) { this.emisor = em; }
+
+        /**
+         * Anota el ticket de la venta en el diario del emisor, antes de su
+         * commit: si la aplicación cae después, el próximo arranque lo emite.
+         * @return el trabajo a encolar, o null sin emisor.
+         * @throws IllegalStateException si el diario no se pudo escribir.
+         */
+        private EmisorTickets.Trabajo anotarTicket(Evento e, Venta v) {
+            EmisorTickets em = emisor;
+            if (em == null) return null;
+            EmisorTickets.Trabajo t = EmisorTickets.trabajo(v, e, buscarClientePorId(v.getClienteId()));
+            try {
+                em.anotar(t);
+            } catch (IOException ex) {
+                throw new IllegalStateException("No se pudo anotar el ticket: " + ex.getMessage(), ex);
+            }
+            return t;
+        }
+
+        /** Deja sin efecto tickets anotados de ventas que no se confirmaron. */
+        private void anularTickets(EmisorTickets.Trabajo... ts) {
+            EmisorTickets em = emisor;
+            for (EmisorTickets.Trabajo t : ts) if (em != null && t != null) em.anular(t);
+        }
+
+        /**
+         * Entrega al emisor los tickets de ventas ya confirmadas. Se llama
+         * sin el monitor tomado; cualquier hilo puede drenar lo de otros.
+         */
+        private void emitirPendientes() {
+            EmisorTickets em = emisor;
+            for (EmisorTickets.Trabajo t; (t = porEmitir.poll()) != null; ) {
+                if (em != null) em.encolar(t);
+            }
+        }
+
+        /** Feed de cambios de asientos (ventas, anulaciones y retenciones). */
+        FeedAsientos getFeed() { return feed; }
+
+        /* ====== DISPONIBILIDAD ====== */
+
+        /** Total de asientos del subplano del evento. */
+        int total(Evento e) { return e.getFilas() * e.getColumnas(); }
+
+        /** Total de asientos ocupados por las ventas del evento. */
+        synchronized int ocupados(Evento e) { return e.getOcupados(); }
+
+        /** Asientos libres restantes. */
+        synchronized int libres(Evento e) { return total(e) - ocupados(e); }
+
+        /* ====== RECAUDACIÓN (centavos, suma entera exacta) ====== */
+
+        /** Recaudación neta de un evento. */
+        synchronized long recaudacion(Evento e) {
+            long s = 0;
+            for (Venta v : e.getVentas()) s += v.getNeto();
+            return s;
+        }
+
+        /** Recaudación neta de la temporada (ventas vigentes + funciones archivadas). */
+        synchronized long recaudacionTemporada() {
+            long s = recaudacionArchivada;
+            for (Venta v : ventas) if (v != null) s += v.getNeto();
+            return s;
+        }
+
+        /* ====== VENTAS ====== */
+
+        /**
+         * Ejecuta una venta validando:
+         * - existencia de evento y cliente,
+         * - cantidad válida y <= límite,
+         * - pertenencia de cada asiento al subplano del evento,
          * - que no haya IDs duplicados en la selección,
          * - que todos estén libres y haya stock.
          * Si se viola la invariante de ocupación, hace rollback.
          */
         Venta venderEntradas(int eventoId, int clienteId, int[] ids) {
+            return venderEntradas(eventoId, clienteId, ids, null);
+        }
+
+        /**
+         * Igual que {@link #venderEntradas(int, int, int[])} aplicando
+         * además un código promocional (null o vacío = sin código).
+         */
+        Venta venderEntradas(int eventoId, int clienteId, int[] ids, String codigoPromo) {
+            return venderEntradas(eventoId, clienteId, ids, codigoPromo, null, null);
+        }
+
+        /** Venta idempotente sin cotización previa (ver la versión completa). */
+        Venta venderEntradas(int eventoId, int clienteId, int[] ids, String codigoPromo, String claveSolicitud) {
+            return venderEntradas(eventoId, clienteId, ids, codigoPromo, claveSolicitud, null);
+        }
+
+        /**
+         * Venta idempotente: con una clave de solicitud, un reintento con
+         * la misma clave devuelve la venta original sin tocar asientos.
+         * La clave debe poder repetirla quien reintenta: la consola usa el
+         * número de operación del resumen (cubre la reconfirmación dentro
+         * de la misma compra); un cliente API envía la suya propia.
+         * La clave se recuerda 15 minutos (máx. 10.000 claves); reusarla
+         * con otros datos es un error. Si la venta original se anuló, el
+         * reintento igual la devuelve: la compra ya fue atendida.
+         * Con una cotización previa (la que vio el cliente), se cobra
+         * exactamente ese monto: si entre tanto otra venta cambió el
+         * escalón de precio (o la fase de preventa), la venta se rechaza
+         * con IllegalStateException en lugar de cobrar otro valor.
+         * @param claveSolicitud null o vacía = sin deduplicación
+         * @param cotizada       null = cobrar el precio vigente
+         */
+        Venta venderEntradas(int eventoId, int clienteId, int[] ids, String codigoPromo,
+                             String claveSolicitud, Cotizacion cotizada) {
+            try {
+                return venderConClave(eventoId, clienteId, ids, codigoPromo, claveSolicitud, cotizada);
+            } finally {
+                emitirPendientes();
+            }
+        }
+
+        private synchronized Venta venderConClave(int eventoId, int clienteId, int[] ids, String codigoPromo,
+                                                  String claveSolicitud, Cotizacion cotizada) {
+            String clave = Check.texto(claveSolicitud) ? claveSolicitud.trim() : null;
+            if (clave != null) {
+                Venta previa = solicitudes.buscar(clave, System.nanoTime());
+                if (previa != null) {
+                    Check.require(previa.getEventoId() == eventoId && previa.getClienteId() == clienteId &&
+                                  ids != null && mismosAsientos(previa.getAsientosIds(), ids),
+                                  "Clave de solicitud ya usada en otra compra");
+                    return previa;
+                }
+            }
+            Venta v = venderNueva(eventoId, clienteId, ids, codigoPromo, cotizada);
+            if (clave != null) solicitudes.recordar(clave, v, System.nanoTime());
+            return v;
+        }
+
+        /** Mismo conjunto de asientos, sin importar el orden en que se listaron. */
+        private static boolean mismosAsientos(int[] a, int[] b) {
+            int[] x = a.clone(), y = b.clone();
+            Arrays.sort(x);
+            Arrays.sort(y);
+            return Arrays.equals(x, y);
+        }
+
+        /** Venta sin deduplicar (el monitor lo toma quien llama). */
+        private Venta venderNueva(int eventoId, int clienteId, int[] ids, String codigoPromo, Cotizacion cotizada) {
             Evento e = obtenerEventoPorId(eventoId);
             Check.require(e != null, "Evento inexistente");
+            validarVenta(e, clienteId, ids);
+
+            // Cálculos monetarios (centavos) con la tabla compilada del evento
+            LocalDateTime ahora = LocalDateTime.now();
+            Cotizacion q = cotizar(e, buscarClientePorId(clienteId), ids, codigoPromo, ahora);
+            if (cotizada != null && !q.mismoMonto(cotizada))
+                throw new IllegalStateException("El precio cambio desde la cotizacion: ahora " + q);
+
+            InventarioCompartido.Reserva res = reservarCompartido(e, ids);
+            Venta v = persistirVenta(e, clienteId, ids, q, ahora);
+
+            // Validación de invariante (no duplicidad post-venta)
+            if (!Check.invariante(e)) {
+                quitarVenta(v);               // rollback (sin rastro en el historial)
+                cancelarCompartido(e, ids, res);
+                throw new IllegalStateException("Violacion de invariante de ocupacion");
+            }
+            EmisorTickets.Trabajo ticket;
+            try {
+                ticket = anotarTicket(e, v);  // diario antes del commit
+            } catch (IllegalStateException ex) {
+                quitarVenta(v);
+                cancelarCompartido(e, ids, res);
+                throw ex;
+            }
+            if (res != null) {
+                try {
+                    inventario.confirmar(res, v.getId());
+                } catch (IllegalStateException ex) {    // la reserva ya quedó deshecha
+                    quitarVenta(v);
+                    anularTickets(ticket);
+                    feed.publicar(eventoId, ids, FeedAsientos.LIBRE);
+                    throw ex;
+                }
+            }
+            publicarVenta(e, v, ticket);
+            return v;
+        }
+
+        /** Validaciones de una venta sobre el estado actual del evento. */
+        private void validarVenta(Evento e, int clienteId, int[] ids) {
             Check.require(Check.existeCliente(clientes, clienteId), "Cliente inexistente");
             Check.require(ids != null && ids.length > 0, "Sin asientos");
             Check.require(ids.length <= MAX_ASIENTOS_POR_VENTA,
                           "Maximo por venta: " + MAX_ASIENTOS_POR_VENTA);
             Check.require(ids.length <= libres(e), "No hay suficientes libres");
 
-            // Verificación de pertenencia y rango para cada ID
-            for (int id : ids) {
-                Asiento a = Check.buscar(asientosBase, id);
-                Check.require(a != null, "Asiento ID invalido: " + id);
-                Check.require(a.getFila() < e.getFilas() && a.getColumna() < e.getColumnas(),
-                        "Asiento " + id + " fuera del plano del evento");
-            }
+            validarTope(e, clienteId, ids.length);
+
+            // Verificación de pertenencia al subplano del evento para cada ID
+            for (int id : ids)
+                Check.require(e.getPlano().contiene(id), "Asiento " + id + " fuera del plano del evento");
 
             // Verificar duplicados en la selección
             Set<Integer> unicos = new HashSet<>();
@@ -473,31 +2663,302 @@ public class MainTeatroMoro {
 
             // Verificar ocupación actual
             Check.require(Check.libres(e, ids), "Alguno ya ocupado");
+        }
+
+        /** Tope por cliente en el evento (todas sus compras vigentes); lectura O(1). */
+        private void validarTope(Evento e, int clienteId, int cantidad) {
+            int limite = limiteCliente(e);
+            if (limite > 0) {
+                int ya = comprasPorCliente.get(MapaLargoInt.clave(e.getId(), clienteId));
+                Check.require(ya + cantidad <= limite,
+                              "Limite por cliente en este evento: " + limite + " (ya tiene " + ya + ")");
+            }
+        }
 
-            // Cálculos monetarios
-            Cliente c = buscarClientePorId(clienteId);
-            double bruto = e.getPrecioBase() * ids.length;
-            double desc  = Math.round(bruto * DescuentoService.factor(c.getTipo()) * 100.0) / 100.0;
-            double neto  = Math.round((bruto - desc) * 100.0) / 100.0;
+        /** Reclamo en el inventario compartido (otras cajas del equipo); null sin inventario. */
+        private InventarioCompartido.Reserva reservarCompartido(Evento e, int[] ids) {
+            if (inventario == null) return null;
+            InventarioCompartido.Reserva res = inventario.reservar(e.getId(), ids);
+            Check.require(res != null, "Alguno ya ocupado (otra caja)");
+            feed.publicar(e.getId(), ids, FeedAsientos.RETENIDO);
+            return res;
+        }
 
-            // Persistir venta en arreglo + asociarla al evento
-            Venta v = new Venta(nextVentaId++, eventoId, clienteId, Arrays.copyOf(ids, ids.length),
-                                LocalDateTime.now(), bruto, desc, neto);
-            insertarVenta(v); e.getVentas().add(v);
+        private void cancelarCompartido(Evento e, int[] ids, InventarioCompartido.Reserva res) {
+            if (res == null) return;
+            inventario.cancelar(res);
+            feed.publicar(e.getId(), ids, FeedAsientos.LIBRE);
+        }
 
-            // Validación de invariante (no duplicidad post-venta)
-            if (!Check.invariante(e)) {
-                eliminarVenta(v.getId());     // rollback en estructura global
-                e.getVentas().remove(v);      // rollback en evento
-                throw new IllegalStateException("Violacion de invariante de ocupacion");
-            }
+        /** Persiste la venta en el arreglo y la asocia al evento (ocupa sus asientos). */
+        private Venta persistirVenta(Evento e, int clienteId, int[] ids, Cotizacion q, LocalDateTime ahora) {
+            Venta v = new Venta(nextVentaId++, e.getId(), clienteId, Arrays.copyOf(ids, ids.length),
+                                ahora, q.getBruto(), q.getDesc(), q.getNeto());
+            insertarVenta(v); e.agregarVenta(v); e.ocupar(v.getAsientosIds());
+            contarButacas(e, v.getAsientosIds(), 1);
             return v;
         }
 
-        /** Inserta la venta y expande arreglo si es necesario. */
+        /** Venta ya confirmada: registra el alta y deja su ticket anotado para encolar. */
+        private void publicarVenta(Evento e, Venta v, EmisorTickets.Trabajo ticket) {
+            e.getHistorial().registrarAlta(v, e.getOcupacion());
+            feed.publicar(e.getId(), v.getAsientosIds(), FeedAsientos.VENDIDO);
+            if (ticket != null) porEmitir.add(ticket);
+        }
+
+        /* ====== CARRITO ====== */
+
+        /**
+         * Agrega asientos de un evento al carrito (o los suma a su línea):
+         * se validan y cotizan ahora, y la línea guarda la versión del
+         * evento. Los asientos no quedan retenidos.
+         */
+        synchronized Carrito.Linea agregarAlCarrito(Carrito c, int eventoId, int[] ids, String codigoPromo) {
+            Evento e = obtenerEventoPorId(eventoId);
+            Check.require(e != null, "Evento inexistente");
+            Check.require(ids != null && ids.length > 0, "Sin asientos");
+            Carrito.Linea previa = c.linea(eventoId);
+            int[] todos = ids.clone();
+            String promo = codigoPromo;
+            if (previa != null) {
+                todos = Arrays.copyOf(previa.getIds(), previa.getIds().length + ids.length);
+                System.arraycopy(ids, 0, todos, previa.getIds().length, ids.length);
+                if (!Check.texto(promo)) promo = previa.getPromo();
+            }
+            validarVenta(e, c.getClienteId(), todos);
+            Cotizacion q = cotizar(e, buscarClientePorId(c.getClienteId()), todos, promo, LocalDateTime.now());
+            Carrito.Linea l = new Carrito.Linea(eventoId, todos, promo, e.getVersion(), q);
+            c.poner(l);
+            return l;
+        }
+
+        /**
+         * Compra todo el carrito o nada. Solo se revalidan (asientos e
+         * invariante) los eventos cuya versión cambió desde que se agregó
+         * su línea; el resto se confía a la versión. En todas las líneas
+         * se vuelve a leer el tope por cliente (O(1): los límites cambian
+         * sin tocar la versión) y se recotiza (sin recorrer asientos); el
+         * monto debe coincidir con lo cotizado. Luego se reservan todas en el inventario
+         * compartido, se registran y se confirman; ante cualquier fallo
+         * se deshace lo hecho sin rastro en el historial.
+         * @return las ventas creadas, en el orden del carrito.
+         */
+        List<Venta> confirmarCarrito(Carrito c) {
+            try {
+                return confirmarCarritoSincronizado(c);
+            } finally {
+                emitirPendientes();
+            }
+        }
+
+        private synchronized List<Venta> confirmarCarritoSincronizado(Carrito c) {
+            Check.require(!c.vacio(), "Carrito vacio");
+            Check.require(Check.existeCliente(clientes, c.getClienteId()), "Cliente inexistente");
+            Cliente cli = buscarClientePorId(c.getClienteId());
+            List<Carrito.Linea> lineas = c.getLineas();
+            int n = lineas.size();
+            Evento[] ev = new Evento[n];
+            Cotizacion[] qs = new Cotizacion[n];
+            boolean[] revalidar = new boolean[n];
+            LocalDateTime ahora = LocalDateTime.now();
+            int revalidados = 0;
+
+            // 1) Revalidación optimista: solo eventos con otra versión
+            for (int i = 0; i < n; i++) {
+                Carrito.Linea l = lineas.get(i);
+                Evento e = obtenerEventoPorId(l.getEventoId());
+                Check.require(e != null, "Evento inexistente: " + l.getEventoId());
+                if (e.getVersion() != l.getVersion()) {
+                    validarVenta(e, c.getClienteId(), l.getIds());
+                    revalidar[i] = true;
+                    revalidados++;
+                } else {
+                    validarTope(e, c.getClienteId(), l.getIds().length);   // los límites cambian sin tocar la versión
+                }
+                qs[i] = cotizar(e, cli, l.getIds(), l.getPromo(), ahora);
+                if (!qs[i].mismoMonto(l.getCotizada()))
+                    throw new IllegalStateException("El precio cambio en " + e.getNombre() + ": ahora " + qs[i]);
+                ev[i] = e;
+            }
+            c.setRevalidados(revalidados);
+
+            // 2) Reclamo de todas las líneas en el inventario compartido
+            InventarioCompartido.Reserva[] res = new InventarioCompartido.Reserva[n];
+            int r = 0;
+            try {
+                for (; r < n; r++) res[r] = reservarCompartido(ev[r], lineas.get(r).getIds());
+            } catch (RuntimeException ex) {
+                for (int j = 0; j < r; j++) cancelarCompartido(ev[j], lineas.get(j).getIds(), res[j]);
+                throw ex;
+            }
+
+            // 3) Registro; la invariante solo se verifica en los eventos revalidados
+            List<Venta> hechas = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                hechas.add(persistirVenta(ev[i], c.getClienteId(), lineas.get(i).getIds(), qs[i], ahora));
+                if (revalidar[i] && !Check.invariante(ev[i])) {
+                    for (Venta v : hechas) quitarVenta(v);
+                    for (int j = 0; j < n; j++) cancelarCompartido(ev[j], lineas.get(j).getIds(), res[j]);
+                    throw new IllegalStateException("Violacion de invariante de ocupacion en " + ev[i].getNombre());
+                }
+            }
+
+            // 3b) Diario de tickets antes del commit
+            EmisorTickets.Trabajo[] tickets = new EmisorTickets.Trabajo[n];
+            try {
+                for (int i = 0; i < n; i++) tickets[i] = anotarTicket(ev[i], hechas.get(i));
+            } catch (IllegalStateException ex) {
+                for (Venta v : hechas) quitarVenta(v);
+                for (int j = 0; j < n; j++) cancelarCompartido(ev[j], lineas.get(j).getIds(), res[j]);
+                anularTickets(tickets);
+                throw ex;
+            }
+
+            // 4) Commit en el inventario compartido; si una línea falla se deshacen todas
+            for (int i = 0; i < n; i++) {
+                if (res[i] == null) continue;
+                try {
+                    inventario.confirmar(res[i], hechas.get(i).getId());
+                } catch (IllegalStateException ex) {
+                    for (Venta v : hechas) quitarVenta(v);
+                    anularTickets(tickets);
+                    for (int j = 0; j < n; j++) {
+                        int[] ids = lineas.get(j).getIds();
+                        if (j < i) inventario.liberar(ev[j].getId(), ids);
+                        else if (j > i) inventario.cancelar(res[j]);
+                        feed.publicar(ev[j].getId(), ids, FeedAsientos.LIBRE);
+                    }
+                    throw ex;
+                }
+            }
+            for (int i = 0; i < n; i++) publicarVenta(ev[i], hechas.get(i), tickets[i]);
+            c.vaciar();
+            return hechas;
+        }
+
+        /**
+         * Tabla de precios vigente del evento; se recompila solo si
+         * cambió su precio base o el conjunto de reglas. Sin reglas
+         * propias del evento, la tabla se guarda en el plano compartido
+         * (una sola compilación para toda la serie).
+         */
+        TablaPrecios tablaPrecios(Evento e) {
+            boolean propia = motor.tieneReglasPropias(e.getId());
+            TablaPrecios t = propia ? e.getTabla() : e.getPlano().getTabla();
+            if (t == null || t.getVersion() != motor.getVersion()) {
+                t = motor.compilar(e);
+                if (propia) e.setTabla(t); else e.getPlano().setTabla(t);
+            }
+            return t;
+        }
+
+        /**
+         * Cotiza asientos concretos (con precios dinámicos cada fila puede
+         * costar distinto); es exactamente lo que cobra la venta.
+         */
+        synchronized Cotizacion cotizar(Evento e, Cliente c, int[] ids, String codigoPromo) {
+            return cotizar(e, c, ids, codigoPromo, LocalDateTime.now());
+        }
+
+        private Cotizacion cotizar(Evento e, Cliente c, int[] ids, String codigoPromo, LocalDateTime instante) {
+            TablaPrecios t = tablaPrecios(e);
+            int promo = t.indicePromo(codigoPromo);
+            Check.require(promo >= 0, "Codigo promocional invalido");
+            if (e.getDinamicos() == null && e.getZonas() == null) return t.cotizar(instante, promo, c, ids.length);
+            int d = t.puntosBase(instante, promo, c, ids.length);
+            long bruto = 0;
+            for (int id : ids) bruto += e.precioAsiento(id);
+            return DescuentoService.desdeBruto(bruto, d);
+        }
+
+        /* ====== ZONAS ====== */
+
+        /**
+         * Define las zonas del evento (lista vacía = quitar). Con
+         * {@code toda} y un evento de serie, todas sus funciones comparten
+         * el mismo {@link MapaZonas}.
+         */
+        synchronized boolean definirZonas(int eventoId, List<Zona> lista, boolean toda) {
+            Evento e = obtenerEventoPorId(eventoId);
+            if (e == null) return false;
+            MapaZonas m = lista.isEmpty() ? null : new MapaZonas(e.getPlano(), lista);
+            if (toda && e.getSerieId() != 0) {
+                for (Evento x : eventos)
+                    if (x.getSerieId() == e.getSerieId() && x.getPlano() == e.getPlano()) x.setZonas(m);
+            } else {
+                e.setZonas(m);
+            }
+            return true;
+        }
+
+        /** Asientos libres de una zona por nombre (-1 si no existe). O(1) tras ubicar la zona. */
+        synchronized int libresZona(int eventoId, String zona) {
+            Evento e = obtenerEventoPorId(eventoId);
+            if (e == null || e.getZonas() == null) return -1;
+            int z = e.getZonas().indice(zona);
+            return z < 0 ? -1 : e.libresZona(z);
+        }
+
+        /**
+         * Mejor ubicación de N asientos juntos dentro de una zona: usa los
+         * contadores y tramos por fila de la zona para descartar sin leer
+         * asientos, y solo recorre el segmento de la fila elegida.
+         * @return IDs o null si la zona no tiene N juntos.
+         */
+        synchronized int[] ubicarEnZona(int eventoId, String zona, int n) {
+            Evento e = obtenerEventoPorId(eventoId);
+            if (e == null || e.getZonas() == null) return null;
+            int z = e.getZonas().indice(zona);
+            if (z < 0 || e.libresZona(z) < n) return null;
+            Zona zo = e.getZonas().zona(z);
+            int centro = zo.getFilaDesde() + zo.getFilaHasta() + 1, mejorF = -1;
+            for (int f = zo.getFilaDesde(); f <= zo.getFilaHasta(); f++)
+                if (e.tramoZona(z, f) >= n && (mejorF < 0 || Math.abs(2 * f + 1 - centro) < Math.abs(2 * mejorF + 1 - centro)))
+                    mejorF = f;
+            if (mejorF < 0) return null;
+            int c = UbicadorGrupos.tramoEnSegmento(e, mejorF, n, zo.getColDesde(), zo.getColHasta());
+            int[] ids = new int[n];
+            for (int i = 0; i < n; i++) ids[i] = e.getPlano().id(mejorF, c + i);
+            return ids;
+        }
+
+        /**
+         * Resumen de zonas: "Nombre: libres/capacidad a precio" por zona,
+         * con el precio de la zona en el escalón vigente. Si el recargo de
+         * fila cubre solo parte de la zona se muestra el rango mín-máx
+         * (las primeras filas son las caras).
+         */
+        synchronized String resumenZonas(Evento e) {
+            MapaZonas m = e.getZonas();
+            if (m == null) return "";
+            StringJoiner sj = new StringJoiner(" | ");
+            for (int z = 0; z < m.cantidad(); z++) {
+                Zona zo = m.zona(z);
+                long max = e.precioZona(z, zo.getFilaDesde()), min = e.precioZona(z, zo.getFilaHasta());
+                sj.add(m.letra(z) + "=" + zo.getNombre() + ": " + e.libresZona(z) + "/" + zo.capacidad() + " a " +
+                       (min == max ? Dinero.formato(min) : Dinero.formato(min) + "-" + Dinero.formato(max)));
+            }
+            return sj.toString();
+        }
+
+        /** Activa o quita (null) los precios dinámicos de un evento. */
+        synchronized boolean configurarPreciosDinamicos(int eventoId, PreciosDinamicos d) {
+            Evento e = obtenerEventoPorId(eventoId);
+            if (e == null) return false;
+            e.setDinamicos(d);
+            return true;
+        }
+
+        /** Inserta la venta (y la indexa); expande arreglo si es necesario. */
         private void insertarVenta(Venta v) {
             for (int i = 0; i < ventas.length; i++)
-                if (ventas[i] == null) { ventas[i] = v; return; }
+                if (ventas[i] == null) {
+                    ventas[i] = v;
+                    indice.agregar(v, i);
+                    comprasPorCliente.sumar(MapaLargoInt.clave(v.getEventoId(), v.getClienteId()),
+                                            v.cantidadAsientos());
+                    return;
+                }
             ventas = Arrays.copyOf(ventas, ventas.length + Math.max(4, ventas.length / 2));
             insertarVenta(v);
         }
@@ -506,17 +2967,81 @@ public class MainTeatroMoro {
          * Elimina una venta por ID de la estructura global y
          * la quita también de la lista de ventas del evento.
          */
-        boolean eliminarVenta(int id) {
-            boolean rem = false;
-            for (int i = 0; i < ventas.length; i++)
-                if (ventas[i] != null && ventas[i].getId() == id) {
-                    ventas[i] = null; rem = true; break;
-                }
-            if (!rem) return false;
-            for (Evento e : eventos) e.getVentas().removeIf(v -> v.getId() == id);
+        synchronized boolean eliminarVenta(int id) {
+            Venta v = indice.porId(id);
+            if (v == null) return false;
+            Evento e = quitarVenta(v);
+            if (inventario != null) inventario.liberar(v.getEventoId(), v.getAsientosIds());
+            if (e != null) e.getHistorial().registrarBaja(v, LocalDateTime.now(), e.getOcupacion());
+            feed.publicar(v.getEventoId(), v.getAsientosIds(), FeedAsientos.LIBRE);
             return true;
         }
 
+        /**
+         * Quita la venta del arreglo global y de su evento, liberando
+         * sus asientos. @return el evento afectado (o null).
+         */
+        private Evento quitarVenta(Venta v) {
+            int pos = indice.quitar(v);
+            if (pos >= 0 && pos < ventas.length && ventas[pos] == v) {
+                ventas[pos] = null;
+                comprasPorCliente.sumar(MapaLargoInt.clave(v.getEventoId(), v.getClienteId()),
+                                        -v.cantidadAsientos());
+            }
+            Evento e = obtenerEventoPorId(v.getEventoId());
+            if (e != null && e.quitarVenta(v)) {
+                e.liberar(v.getAsientosIds());
+                contarButacas(e, v.getAsientosIds(), -1);
+            }
+            return e;
+        }
+
+        /** Suma (o resta) cada asiento del evento en su butaca del plano base. */
+        private void contarButacas(Evento e, int[] ids, int d) {
+            PlanoEvento p = e.getPlano();
+            for (int id : ids) vendidosPorButaca[p.fila(id) * baseColumnas + p.columna(id)] += d;
+        }
+
+        /* ====== CONSULTAS INDEXADAS ====== */
+
+        /** Venta por ID (vigente o de una función archivada), o null. */
+        synchronized Venta buscarVentaPorId(int id) {
+            Venta v = indice.porId(id);
+            return v != null ? v : ventaArchivada(id);
+        }
+
+        /** Compras de un cliente (incluye archivadas) en orden de alta, sin recorrer todas las ventas. */
+        synchronized List<Venta> ventasDeCliente(int clienteId) {
+            ListaInt arch = archivadasPorCliente.get(clienteId);
+            if (arch == null) return indice.deCliente(clienteId);
+            List<Venta> out = new ArrayList<>();
+            for (int i = 0; i < arch.tamano(); i++) out.add(ventaArchivada(arch.get(i)));
+            out.addAll(indice.deCliente(clienteId));
+            out.sort(Comparator.comparingInt(Venta::getId));
+            return out;
+        }
+
+        /** Ventas con fecha en [desde, hasta) (incluye archivadas), en orden temporal. */
+        synchronized List<Venta> ventasEntre(LocalDateTime desde, LocalDateTime hasta) {
+            List<Venta> out = indice.entre(desde, hasta);
+            if (archivados.isEmpty()) return out;
+            long a = HistorialEvento.milis(desde), b = HistorialEvento.milis(hasta);
+            for (EventoArchivado ea : archivados) ea.entre(a, b, out);
+            out.sort(Comparator.comparing(Venta::getFecha).thenComparingInt(Venta::getId));
+            return out;
+        }
+
+        /* ====== HISTORIAL (consulta por fecha/hora) ====== */
+
+        /**
+         * Ocupación y recaudación de un evento tal como estaban en el
+         * instante dado (null si el evento no existe).
+         */
+        synchronized HistorialEvento.Estado estadoEn(int eventoId, LocalDateTime instante) {
+            Evento e = obtenerEventoPorId(eventoId);
+            return e == null ? null : e.getHistorial().estadoEn(instante);
+        }
+
         /* ====== RENDER ASCII ====== */
 
         // Códigos ANSI: reset, verde, rojo, cian, negrita
@@ -527,15 +3052,42 @@ public class MainTeatroMoro {
          * Render de ocupación (O/X) para el subplano del evento.
          * Usa bordes ASCII (+ - |). Aplica colores si están activos.
          */
-        String planoAscii(int eventoId) {
+        synchronized String planoAscii(int eventoId) {
+            Evento e = obtenerEventoPorId(eventoId);
+            if (e == null) return "Evento no encontrado.";
+            BitSet oc = ocupacionVisible(e);
+            return renderPlano(e, oc, cabeceraPlano(e, oc));
+        }
+
+        /**
+         * Ocupación a mostrar: la del inventario compartido (todas las
+         * cajas) si está conectado; si no, la local del evento.
+         */
+        BitSet ocupacionVisible(Evento e) {
+            return inventario != null ? inventario.ocupacion(e.getId()) : e.getOcupacion();
+        }
+
+        /**
+         * Render de ocupación reconstruida a un instante pasado, con la
+         * recaudación acumulada hasta ese momento.
+         */
+        synchronized String planoAscii(int eventoId, LocalDateTime instante) {
             Evento e = obtenerEventoPorId(eventoId);
             if (e == null) return "Evento no encontrado.";
+            HistorialEvento.Estado st = e.getHistorial().estadoEn(instante);
+            String cab = B + "Plano - " + e.getNombre() + " @ " + instante.withNano(0) + R +
+                         " | Ventas: " + st.getVentas() +
+                         " | Recaudado: " + Dinero.formato(st.getRecaudacion()) +
+                         " | Libres: " + (total(e) - st.getOcupados()) + "/" + total(e);
+            return renderPlano(e, st.getOcupacion(), cab);
+        }
+
+        /** Dibuja el subplano del evento para una ocupación dada. */
+        private String renderPlano(Evento e, BitSet ocupacion, String cabecera) {
             int F = e.getFilas(), K = e.getColumnas();
 
             StringBuilder sb = new StringBuilder();
-            sb.append(B).append("Plano - ").append(e.getNombre()).append(R)
-              .append(" | Precio: ").append(e.getPrecioBase())
-              .append(" | Libres: ").append(libres(e)).append("/").append(total(e)).append("\n");
+            sb.append(cabecera).append("\n");
 
             // encabezado de columnas
             sb.append("    ");
@@ -547,32 +3099,219 @@ public class MainTeatroMoro {
 
             // filas
             for (int f = 0; f < F; f++) {
-                char letra = (char) ('A' + f);
-                sb.append(" ").append(letra).append(" ").append("|");
+                sb.append(String.format(" %-2s|", PlanoEvento.nombreFila(f)));
                 for (int c = 0; c < K; c++) {
                     int id = asientosBase[f * K + c].getId();
-                    boolean oc = Check.ocupado(e, id);
-                    String simb = oc ? "X" : "O";
-                    String o = USE_COLORS ? (oc ? D : G) : "";
-                    String r = USE_COLORS ? R : "";
-                    sb.append(" ").append(o).append(simb).append(r).append(" ");
+                    sb.append(" ").append(celdaPlano(ocupacion.get(id), e.getZonas(), id)).append(" ");
                 }
                 sb.append("|").append("\n");
             }
 
             // borde inferior y leyenda
             sb.append("   ").append("+").append("-".repeat(K * 3)).append("+").append("\n");
-            sb.append((USE_COLORS ? C : "")).append("Leyenda: ").append((USE_COLORS ? R : ""))
-              .append((USE_COLORS ? G : "")).append("O Libre ").append((USE_COLORS ? R : ""))
-              .append((USE_COLORS ? D : "")).append("X Ocupado").append((USE_COLORS ? R : "")).append("\n");
+            sb.append((USE_COLORS ? C : "")).append("Leyenda: ").append((USE_COLORS ? R : ""));
+            MapaZonas m = e.getZonas();
+            int enZonas = 0;
+            if (m != null) {   // una butaca libre de zona se dibuja con la letra de su zona
+                for (int z = 0; z < m.cantidad(); z++) {
+                    String letra = String.valueOf(m.letra(z));
+                    sb.append(USE_COLORS ? COLOR_ZONA[z % COLOR_ZONA.length] + letra + R : letra).append(z + 1 < m.cantidad() ? "," : " ");
+                    enZonas += m.zona(z).capacidad();
+                }
+                sb.append("Libre en zona ");
+            }
+            if (enZonas < total(e))
+                sb.append((USE_COLORS ? G : "")).append(m == null ? "O Libre " : "O Libre sin zona ").append((USE_COLORS ? R : ""));
+            sb.append((USE_COLORS ? D : "")).append("X Ocupado").append((USE_COLORS ? R : "")).append("\n");
+            if (m != null) sb.append("Zonas: ").append(resumenZonas(e)).append("\n");
+            return sb.toString();
+        }
+
+        /** Primera línea del plano: nombre, precio y libres/total. */
+        String cabeceraPlano(Evento e, BitSet ocupacion) {
+            return B + "Plano - " + e.getNombre() + R +
+                   " | Precio: " + Dinero.formato(e.getPrecioActual()) +
+                   " | Libres: " + (total(e) - ocupacion.cardinality()) + "/" + total(e);
+        }
+
+        // Rampa del mapa de calor: densidad ASCII y colores ANSI 256 (frío -> caliente)
+        private static final String DENSIDAD = " .:-=+*#%@";
+        private static final int[] RAMPA = {21, 27, 33, 39, 45, 49, 82, 154, 226, 214, 208, 196};
+
+        /**
+         * Mapa de calor de la temporada sobre el plano base: para cada
+         * butaca, asientos vendidos / eventos que la incluyen. Lee solo
+         * los contadores mantenidos en venta/anulación (nunca las ventas).
+         */
+        synchronized String planoCalor() {
+            int F = baseFilas, K = baseColumnas;
+
+            // eventos que incluyen (f, c) = eventos con filas > f y columnas > c (suma sufija 2D)
+            int[][] expos = new int[F + 2][K + 2];
+            for (int f = F; f >= 1; f--)
+                for (int c = K; c >= 1; c--)
+                    expos[f][c] = eventosPorForma[f][c] + expos[f + 1][c] + expos[f][c + 1] - expos[f + 1][c + 1];
+
+            long vendidos = 0, plazas = 0;
+            StringBuilder sb = new StringBuilder();
+            StringBuilder filas = new StringBuilder();
+            for (int f = 0; f < F; f++) {
+                filas.append(String.format(" %-2s|", PlanoEvento.nombreFila(f)));
+                for (int c = 0; c < K; c++) {
+                    int n = expos[f + 1][c + 1], v = vendidosPorButaca[f * K + c];
+                    vendidos += v; plazas += n;
+                    filas.append(" ").append(celdaCalor(n == 0 ? -1 : (double) v / n)).append(" ");
+                }
+                filas.append("|").append("\n");
+            }
+
+            // expos[1][1] = todos los eventos de la temporada (incluye archivados), igual que las plazas
+            sb.append(B).append("Mapa de calor - temporada (").append(expos[1][1]).append(" eventos)").append(R)
+              .append(String.format(" | Venta media: %.1f%%", plazas == 0 ? 0.0 : 100.0 * vendidos / plazas)).append("\n");
+            sb.append("    ");
+            for (int c = 1; c <= K; c++) sb.append(String.format("%3d", c));
+            sb.append("\n");
+            sb.append("   ").append("+").append("-".repeat(K * 3)).append("+").append("\n");
+            sb.append(filas);
+            sb.append("   ").append("+").append("-".repeat(K * 3)).append("+").append("\n");
+            sb.append("Escala: ");
+            for (int i = 0; i < DENSIDAD.length(); i++) sb.append(celdaCalor((double) i / (DENSIDAD.length() - 1)));
+            sb.append(" (0% -> 100% vendido; espacio = sin eventos)\n");
+            return sb.toString();
+        }
+
+        /** Celda del mapa de calor: símbolo de densidad, coloreado si hay colores. */
+        static String celdaCalor(double tasa) {
+            if (tasa < 0) return " ";
+            double t = Math.min(1.0, tasa);
+            char simb = DENSIDAD.charAt(Math.max(1, (int) Math.round(t * (DENSIDAD.length() - 1))));
+            if (!USE_COLORS) return String.valueOf(simb);
+            return "\u001B[38;5;" + RAMPA[(int) Math.round(t * (RAMPA.length - 1))] + "m" + simb + R;
+        }
+
+        /**
+         * Render de una ventana del plano: filas [f0, f0+nf) y columnas
+         * [c0, c0+nc), recortadas al evento. Solo consulta las butacas de
+         * la ventana, así el costo no depende del tamaño de la sala.
+         */
+        synchronized String planoVentana(int eventoId, int f0, int c0, int nf, int nc) {
+            Evento e = obtenerEventoPorId(eventoId);
+            if (e == null) return "Evento no encontrado.";
+            int F = e.getFilas(), K = e.getColumnas();
+            f0 = Math.max(0, Math.min(f0, F - 1));
+            c0 = Math.max(0, Math.min(c0, K - 1));
+            int f1 = Math.min(F, f0 + nf), c1 = Math.min(K, c0 + nc);
+            int ancho = K >= 100 ? 4 : 3;
+            PlanoEvento p = e.getPlano();
+
+            StringBuilder filas = new StringBuilder();
+            int libresVentana = 0;
+            for (int f = f0; f < f1; f++) {
+                filas.append(String.format(" %-2s|", PlanoEvento.nombreFila(f)));
+                for (int c = c0; c < c1; c++) {
+                    int id = p.id(f, c);
+                    boolean oc = ocupadoVisible(e, id);
+                    if (!oc) libresVentana++;
+                    filas.append(" ".repeat(ancho - 2)).append(celdaPlano(oc, e.getZonas(), id)).append(" ");
+                }
+                filas.append("|").append("\n");
+            }
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(B).append("Plano - ").append(e.getNombre()).append(R)
+              .append(" | Filas ").append(PlanoEvento.nombreFila(f0)).append("-").append(PlanoEvento.nombreFila(f1 - 1))
+              .append(", columnas ").append(c0 + 1).append("-").append(c1)
+              .append(" de ").append(F).append("x").append(K)
+              .append(" | Libres en ventana: ").append(libresVentana).append("/").append((f1 - f0) * (c1 - c0));
+            if (inventario == null) sb.append(" | Sala: ").append(libres(e)).append("/").append(total(e));
+            sb.append("\n");
+            sb.append("    ");
+            for (int c = c0 + 1; c <= c1; c++) sb.append(String.format("%" + ancho + "d", c));
+            sb.append("\n");
+            String borde = "   +" + "-".repeat((c1 - c0) * ancho) + "+\n";
+            sb.append(borde).append(filas).append(borde);
+            sb.append(f0 > 0 ? "^ " : "  ").append(f1 < F ? "v " : "  ")
+              .append(c0 > 0 ? "< " : "  ").append(c1 < K ? "> " : "  ").append("(hay mas plano en esas direcciones)\n");
+            return sb.toString();
+        }
+
+        /**
+         * Vista alejada: la sala en bloques de bf x bc butacas, cada uno
+         * con su cantidad de libres ("--" = bloque completo).
+         */
+        synchronized String planoResumen(int eventoId, int bf, int bc) {
+            Evento e = obtenerEventoPorId(eventoId);
+            if (e == null) return "Evento no encontrado.";
+            Check.require(bf >= 1 && bc >= 1, "Bloque invalido");
+            int F = e.getFilas(), K = e.getColumnas();
+            int w = Math.max(2 * String.valueOf(K).length() + 1, String.valueOf(bf * bc).length()) + 1;
+            int wf = Math.max(3, 2 * PlanoEvento.nombreFila(F - 1).length() + 1);   // rótulo "A-C" / "AA-AC"
+            StringBuilder sb = new StringBuilder();
+            sb.append(B).append("Resumen - ").append(e.getNombre()).append(R)
+              .append(" | Bloques de ").append(bf).append("x").append(bc).append(" | Libres por bloque\n");
+            sb.append(" ".repeat(wf + 1));
+            for (int c = 0; c < K; c += bc) {
+                String cols = bc == 1 ? String.valueOf(c + 1) : (c + 1) + "-" + Math.min(K, c + bc);
+                sb.append(" ".repeat(w - cols.length())).append(cols);
+            }
+            sb.append("\n");
+            for (int f = 0; f < F; f += bf) {
+                int fFin = Math.min(F, f + bf);
+                String rotulo = fFin - f == 1 ? PlanoEvento.nombreFila(f)
+                                              : PlanoEvento.nombreFila(f) + "-" + PlanoEvento.nombreFila(fFin - 1);
+                sb.append(" ").append(rotulo).append(" ".repeat(wf - rotulo.length()));
+                for (int c = 0; c < K; c += bc) {
+                    int cFin = Math.min(K, c + bc), libres = 0;
+                    for (int ff = f; ff < fFin; ff++)
+                        libres += (cFin - c) - ocupadosEnTramo(e, e.getPlano().id(ff, c), e.getPlano().id(ff, cFin - 1) + 1);
+                    String celda = libres == 0 ? "--" : String.valueOf(libres);
+                    sb.append(" ".repeat(w - celda.length()))
+                      .append(USE_COLORS ? (libres == 0 ? D : G) + celda + R : celda);
+                }
+                sb.append("\n");
+            }
             return sb.toString();
         }
 
+        /** Ocupación visible de un asiento (inventario compartido si está conectado). */
+        private boolean ocupadoVisible(Evento e, int id) {
+            return inventario != null ? inventario.ocupado(e.getId(), id) : e.ocupado(id);
+        }
+
+        /** Ocupados visibles en los IDs [desde, hasta) de una misma fila. */
+        private int ocupadosEnTramo(Evento e, int desde, int hasta) {
+            int n = 0;
+            if (inventario != null) {
+                for (int id = desde; id < hasta; id++) if (inventario.ocupado(e.getId(), id)) n++;
+                return n;
+            }
+            BitSet oc = e.getOcupacion();
+            for (int id = oc.nextSetBit(desde); id >= 0 && id < hasta; id = oc.nextSetBit(id + 1)) n++;
+            return n;
+        }
+
+        /** Símbolo de una butaca (O/X), coloreado si los colores están activos. */
+        static String celdaPlano(boolean ocupado) {
+            String simb = ocupado ? "X" : "O";
+            return USE_COLORS ? (ocupado ? D : G) + simb + R : simb;
+        }
+
+        // Colores de zona (amarillo, magenta, azul, cian) para butacas libres
+        private static final String[] COLOR_ZONA = {"\u001B[33m", "\u001B[35m", "\u001B[34m", "\u001B[36m"};
+
+        /** Como {@link #celdaPlano(boolean)}, pero una butaca libre de zona muestra la letra de su zona. */
+        static String celdaPlano(boolean ocupado, MapaZonas zonas, int id) {
+            int z = (zonas == null || ocupado) ? -1 : zonas.zonaDe(id);
+            if (z < 0) return celdaPlano(ocupado);
+            String simb = String.valueOf(zonas.letra(z));
+            return USE_COLORS ? COLOR_ZONA[z % COLOR_ZONA.length] + simb + R : simb;
+        }
+
         /**
          * Render de mapa de IDs (numérico) para orientar al usuario al
          * seleccionar por ID. No muestra ocupación.
          */
-        String planoConIds(int eventoId) {
+        synchronized String planoConIds(int eventoId) {
             Evento e = obtenerEventoPorId(eventoId);
             if (e == null) return "Evento no encontrado.";
             int F = e.getFilas(), K = e.getColumnas();
@@ -590,8 +3329,7 @@ public class MainTeatroMoro {
 
             // filas
             for (int f = 0; f < F; f++) {
-                char letra = (char) ('A' + f);
-                sb.append(" ").append(letra).append(" ").append("|");
+                sb.append(String.format(" %-2s|", PlanoEvento.nombreFila(f)));
                 for (int c = 0; c < K; c++) {
                     int id = asientosBase[f * K + c].getId();
                     sb.append(String.format("%4d", id));
@@ -609,7 +3347,7 @@ public class MainTeatroMoro {
          * Busca un bloque de N asientos contiguos libres en una fila concreta.
          * @return lista con los IDs seleccionados o lista vacía si no hay.
          */
-        List<Integer> contiguosEnFila(int eventoId, int filaIndex, int n) {
+        synchronized List<Integer> contiguosEnFila(int eventoId, int filaIndex, int n) {
             Evento e = obtenerEventoPorId(eventoId);
             if (e == null) return List.of();
             int K = e.getColumnas();
@@ -630,29 +3368,170 @@ public class MainTeatroMoro {
         }
 
         /**
-         * Reporte breve de un evento (ventas, ocupación y libres).
+         * Mejor ubicación para un grupo de N asientos (ver {@link UbicadorGrupos}).
+         * @return la ubicación o {@code null} si no hay forma de sentarlos juntos.
          */
-        String reporte(int eventoId) {
+        synchronized UbicadorGrupos.Ubicacion ubicarGrupo(int eventoId, int n) {
             Evento e = obtenerEventoPorId(eventoId);
-            if (e == null) return "Evento no encontrado.";
+            if (e == null) return null;
+            return UbicadorGrupos.ubicar(e, n);
+        }
+
+        /** Resultado de la búsqueda en el catálogo: evento, asientos sugeridos y total exacto. */
+        static class Disponibilidad {
+            private final Evento evento;
+            private final int[] ids;
+            private final long total;
+            private final int libres;
+
+            Disponibilidad(Evento evento, int[] ids, long total, int libres) {
+                this.evento = evento;
+                this.ids = ids;
+                this.total = total;
+                this.libres = libres;
+            }
+
+            Evento getEvento() { return evento; }
+            int[] getIds() { return ids; }
+            long getTotal() { return total; }
+
+            @Override
+            public String toString() {
+                PlanoEvento p = evento.getPlano();
+                return "ID " + evento.getId() + " - " + evento.getNombre() +
+                       (evento.getFuncion() == null ? "" : " (" + evento.getFuncion().withNano(0) + ")") +
+                       " | " + Dinero.formato(total) + " (" + Dinero.formato(total / ids.length) + " c/u) | " + p.etiqueta(ids[0]) + "-" + p.etiqueta(ids[ids.length - 1]) +
+                       " | libres " + libres + "/" + evento.capacidad();
+            }
+        }
+
+        /**
+         * Funciones con N asientos juntos (misma fila), cada uno a precio
+         * (zona, escalón y recargo de fila incluidos) menor o igual a
+         * {@code precioMax}, ordenadas por total exacto y luego por fecha.
+         * El filtro usa solo el resumen de cada evento (libres, tramo libre
+         * más largo, precio mínimo); los que pasan se evalúan en paralelo
+         * leyendo únicamente las filas con tramo suficiente. Con inventario
+         * compartido los tramos se buscan sobre la ocupación de todas las
+         * cajas, así no se sugieren asientos ya vendidos en otra.
+         * El rango [desde, hasta) filtra por fecha de función (null = sin
+         * límite); sin rango también entran los eventos sin fecha.
+         */
+        synchronized List<Disponibilidad> buscarDisponibilidad(LocalDateTime desde, LocalDateTime hasta,
+                                                               int n, long precioMax) {
+            Check.require(n >= 1, "Cantidad invalida");
+            boolean conRango = desde != null || hasta != null;
+            List<Evento> candidatos = new ArrayList<>();
+            for (Evento e : eventos) {
+                LocalDateTime f = e.getFuncion();
+                if (conRango && (f == null || (desde != null && f.isBefore(desde)) || (hasta != null && !f.isBefore(hasta))))
+                    continue;
+                if (e.precioMinimo() > precioMax || libres(e) < n || e.tramoLibreMax() < n) continue;
+                candidatos.add(e);
+            }
+            // El monitor del núcleo está tomado: nadie modifica ocupación local mientras se evalúa
+            InventarioCompartido inv = inventario;
+            return candidatos.parallelStream()
+                    .map(e -> evaluarDisponibilidad(e, ocupacionConjunta(inv, e), n, precioMax))
+                    .filter(Objects::nonNull)
+                    .sorted(Comparator.comparingLong(Disponibilidad::getTotal)
+                            .thenComparing(d -> d.getEvento().getFuncion(),
+                                           Comparator.nullsLast(Comparator.naturalOrder()))
+                            .thenComparingInt(d -> d.getEvento().getId()))
+                    .collect(java.util.stream.Collectors.toList());
+        }
+
+        /**
+         * Ocupación local unida a la del inventario compartido (otras cajas
+         * pueden haber vendido asientos que este proceso aún ve libres).
+         */
+        private static BitSet ocupacionConjunta(InventarioCompartido inv, Evento e) {
+            if (inv == null) return e.getOcupacion();
+            BitSet oc = inv.ocupacion(e.getId());
+            oc.or(e.getOcupacion());
+            return oc;
+        }
+
+        /**
+         * Asientos sugeridos en la fila más central que tenga N libres
+         * seguidos (según {@code occ}) dentro del precio. El tramo libre
+         * local solo descarta filas: la ocupación conjunta nunca es menor.
+         */
+        private static Disponibilidad evaluarDisponibilidad(Evento e, BitSet occ, int n, long precioMax) {
+            int F = e.getFilas(), mejorF = -1, mejorC = -1;
+            for (int f = 0; f < F; f++) {
+                if (e.tramoLibre(f) < n) continue;
+                if (mejorF >= 0 && Math.abs(2 * f + 1 - F) >= Math.abs(2 * mejorF + 1 - F)) continue;
+                int c = tramoBajoPrecio(e, occ, f, n, precioMax);
+                if (c >= 0) { mejorF = f; mejorC = c; }
+            }
+            if (mejorF < 0) return null;
+            int[] ids = new int[n];
+            for (int i = 0; i < n; i++) ids[i] = e.getPlano().id(mejorF, mejorC + i);
+            long total = 0;
+            for (int id : ids) total += e.precioAsiento(id);
+            return new Disponibilidad(e, ids, total, e.capacidad() - occ.cardinality());
+        }
+
+        /**
+         * Tramo de N libres en la fila con todos sus asientos a precio
+         * menor o igual a {@code precioMax}. Sin zonas la fila tiene un
+         * solo precio; con zonas se recorre por segmentos de precio válido.
+         * @return columna inicial o -1.
+         */
+        private static int tramoBajoPrecio(Evento e, BitSet occ, int f, int n, long precioMax) {
+            PlanoEvento p = e.getPlano();
+            int K = e.getColumnas();
+            if (e.getZonas() == null)
+                return e.precioAsiento(p.id(f, 0)) <= precioMax ? UbicadorGrupos.tramoEnSegmento(e, occ, f, n, 0, K - 1) : -1;
+            for (int c0 = 0; c0 < K; ) {
+                if (e.precioAsiento(p.id(f, c0)) > precioMax) { c0++; continue; }
+                int c1 = c0;
+                while (c1 + 1 < K && e.precioAsiento(p.id(f, c1 + 1)) <= precioMax) c1++;
+                if (c1 - c0 + 1 >= n) {
+                    int c = UbicadorGrupos.tramoEnSegmento(e, occ, f, n, c0, c1);
+                    if (c >= 0) return c;
+                }
+                c0 = c1 + 1;
+            }
+            return -1;
+        }
+
+        /**
+         * Reporte breve de un evento (ventas, ocupación, libres y recaudación).
+         */
+        synchronized String reporte(int eventoId) {
+            Evento e = obtenerEventoPorId(eventoId);
+            if (e == null) {
+                EventoArchivado a = obtenerArchivado(eventoId);
+                if (a == null) return "Evento no encontrado.";
+                return "Evento (archivado): " + a.getNombre() + " | Ventas: " + a.cantidadVentas() +
+                       " | Vendidos: " + a.getOcupados() + "/" + a.capacidad() +
+                       String.format(" (%.1f%%)", 100.0 * a.getOcupados() / a.capacidad()) +
+                       " | Recaudado: " + Dinero.formato(a.getRecaudacion());
+            }
             int occ = ocupados(e), tot = total(e);
             double p = (tot == 0) ? 0.0 : (100.0 * occ / tot);
             return "Evento: " + e.getNombre() + " | Ventas: " + e.getVentas().size() +
                    " | Ocupados: " + occ + "/" + tot + String.format(" (%.1f%%)", p) +
-                   " | Libres: " + libres(e);
+                   " | Libres: " + libres(e) +
+                   " | Recaudado: " + Dinero.formato(recaudacion(e)) +
+                   (e.getZonas() == null ? "" : "\n  Zonas: " + resumenZonas(e));
         }
 
         /* ====== HELPERS ETIQUETA/ID ====== */
 
         /**
-         * Convierte etiqueta (ej. "A3") a ID de asiento válido para el evento.
+         * Convierte etiqueta (ej. "A3", "AB12") a ID de asiento válido para el evento.
          * @return ID (>=1) o -1 si es inválido / fuera del plano del evento.
          */
         int idDesdeEtiqueta(int eventoId, String etiqueta) {
             if (etiqueta == null || etiqueta.length() < 2) return -1;
             etiqueta = etiqueta.trim().toUpperCase(Locale.ROOT);
-            char filaChar = etiqueta.charAt(0);
-            String numStr = etiqueta.substring(1).trim();
+            int k = 0;
+            while (k < etiqueta.length() && Character.isLetter(etiqueta.charAt(k))) k++;
+            int fila = PlanoEvento.indiceFila(etiqueta.substring(0, k));
+            String numStr = etiqueta.substring(k).trim();
             if (!numStr.matches("\\d+")) return -1;
 
             int col = Integer.parseInt(numStr);
@@ -661,7 +3540,6 @@ public class MainTeatroMoro {
             Evento e = obtenerEventoPorId(eventoId);
             if (e == null) return -1;
 
-            int fila = filaChar - 'A';
             if (fila < 0 || fila >= e.getFilas()) return -1;
             if (col > e.getColumnas()) return -1;
 
@@ -675,12 +3553,607 @@ public class MainTeatroMoro {
          */
         String etiquetaDesdeId(int eventoId, int id) {
             Evento e = obtenerEventoPorId(eventoId);
-            if (e == null) return "?";
-            Asiento a = Check.buscar(asientosBase, id);
-            if (a == null) return "?";
-            if (a.getFila() >= e.getFilas() || a.getColumna() >= e.getColumnas()) return "?";
-            return a.getEtiqueta();
+            PlanoEvento p = e != null ? e.getPlano() : null;
+            if (p == null) {
+                EventoArchivado a = obtenerArchivado(eventoId);
+                if (a != null) p = a.getPlano();
+            }
+            if (p == null || !p.contiene(id)) return "?";
+            return p.etiqueta(id);
+        }
+    }
+
+    /**
+     * Sala de espera virtual delante de {@link TeatroMoroCore#venderEntradas}.
+     * Cada evento tiene una fila FIFO sin bloqueos (ConcurrentLinkedQueue)
+     * y un balde de fichas de admisión del tamaño de la tasa objetivo de
+     * ventas, implementado sin candados como GCRA (un solo AtomicLong con
+     * el instante teórico de la próxima ficha). Solo la cabeza de la fila
+     * puede tomar ficha; si el evento se agota, se rechaza de inmediato.
+     * Cada intento de admisión renueva el turno: una cabeza que no vuelve
+     * a intentar en VENCE_FICHAS intervalos (cliente caído o colgado) se
+     * descarta para no frenar al resto de la fila.
+     */
+    static class SalaEspera {
+        private static final int VENCE_FICHAS = 4;
+        private static final long VENCE_MINIMO_NS = 50_000_000L;
+
+        /** Turno de un comprador en la fila de un evento. */
+        static class Turno {
+            private final long numero;
+            private final int eventoId, cantidad;
+            private volatile boolean admitido, retirado, vencido;
+            private volatile long visto = System.nanoTime();   // último intento de admisión
+
+            Turno(long numero, int eventoId, int cantidad) {
+                this.numero = numero;
+                this.eventoId = eventoId;
+                this.cantidad = cantidad;
+            }
+
+            long getNumero() { return numero; }
+            int getEventoId() { return eventoId; }
+            boolean isAdmitido() { return admitido; }
+
+            /** Vencimiento y admisión se excluyen: gana el que llega primero. */
+            synchronized void vencer() {
+                if (!admitido) vencido = retirado = true;
+            }
+
+            synchronized boolean admitir() {
+                if (!vencido) admitido = true;
+                return admitido;
+            }
+        }
+
+        /** Parámetros del balde; inmutables para publicarse juntos. */
+        private static final class Tasa {
+            private final long intervalo;   // ns por ficha (1 / tasa)
+            private final long tolerancia;  // ráfaga * intervalo
+
+            Tasa(double ventasPorSegundo, int rafaga) {
+                this.intervalo = (long) (1e9 / ventasPorSegundo);
+                this.tolerancia = (long) rafaga * intervalo;
+            }
+
+            /** Plazo sin intentos tras el cual la cabeza se descarta. */
+            long vencimiento() { return Math.max(VENCE_FICHAS * intervalo, VENCE_MINIMO_NS); }
+        }
+
+        /** Fila y balde de fichas de un evento. */
+        private static class Fila {
+            private final ConcurrentLinkedQueue<Turno> cola = new ConcurrentLinkedQueue<>();
+            private final AtomicLong emitidos = new AtomicLong();
+            private final AtomicLong tat = new AtomicLong(System.nanoTime());  // instante teórico
+            private volatile Tasa tasa;
+
+            Fila(double ventasPorSegundo, int rafaga) {
+                this.tasa = new Tasa(ventasPorSegundo, rafaga);
+            }
+
+            /** Toma una ficha si hay disponible (GCRA, sin candados). */
+            boolean tomarFicha() {
+                Tasa p = tasa;
+                while (true) {
+                    long ahora = System.nanoTime(), t = tat.get();
+                    long base = Math.max(t, ahora);
+                    if (base - ahora > p.tolerancia - p.intervalo) return false;
+                    if (tat.compareAndSet(t, base + p.intervalo)) return true;
+                }
+            }
+
+            /** Nanosegundos hasta la próxima ficha (0 si ya hay). */
+            long esperaFicha() {
+                Tasa p = tasa;
+                long ahora = System.nanoTime();
+                return Math.max(0, tat.get() - (p.tolerancia - p.intervalo) - ahora);
+            }
+
+            /** Saca de la cabeza los turnos retirados y los vencidos. */
+            void limpiarCabeza() {
+                long plazo = tasa.vencimiento();
+                Turno h;
+                while ((h = cola.peek()) != null) {
+                    if (!h.retirado && !h.admitido && System.nanoTime() - h.visto > plazo) h.vencer();
+                    if (!h.retirado && !h.admitido) return;
+                    cola.remove(h);
+                }
+            }
+        }
+
+        private final TeatroMoroCore core;
+        private final ConcurrentHashMap<Integer, Fila> filas = new ConcurrentHashMap<>();
+        private final double tasaPorDefecto;
+        private final int rafagaPorDefecto;
+
+        /**
+         * @param tasa   ventas por segundo admitidas por evento
+         * @param rafaga fichas acumulables (ventas seguidas sin esperar)
+         */
+        SalaEspera(TeatroMoroCore core, double tasa, int rafaga) {
+            Check.require(tasa > 0 && rafaga >= 1, "Tasa/rafaga invalidas");
+            this.core = core;
+            this.tasaPorDefecto = tasa;
+            this.rafagaPorDefecto = rafaga;
+        }
+
+        /** Fija la tasa de un evento (reinicia su balde; la fila se conserva). */
+        void configurar(int eventoId, double tasa, int rafaga) {
+            Check.require(tasa > 0 && rafaga >= 1, "Tasa/rafaga invalidas");
+            Fila f = fila(eventoId);
+            f.tasa = new Tasa(tasa, rafaga);
+            f.tat.set(System.nanoTime());
+        }
+
+        private Fila fila(int eventoId) {
+            return filas.computeIfAbsent(eventoId, k -> new Fila(tasaPorDefecto, rafagaPorDefecto));
+        }
+
+        /**
+         * Entra a la fila del evento. Rechaza de inmediato si el evento no
+         * existe o ya no quedan {@code cantidad} asientos libres.
+         */
+        Turno entrar(int eventoId, int cantidad) {
+            Evento e = core.obtenerEventoPorId(eventoId);
+            Check.require(e != null, "Evento inexistente");
+            Check.require(core.libres(e) >= cantidad, "Agotado: no quedan " + cantidad + " asientos");
+            Fila f = fila(eventoId);
+            Turno t = new Turno(f.emitidos.incrementAndGet(), eventoId, cantidad);
+            f.cola.offer(t);
+            return t;
+        }
+
+        /**
+         * Posición en la fila (1 = siguiente en ser admitido): turnos
+         * vigentes por delante, sin contar los retirados que aún no
+         * llegaron a la cabeza. Recorre la fila hasta el turno (solo
+         * para informar al comprador, no está en el camino de venta).
+         */
+        long posicion(Turno t) {
+            if (t.admitido || t.retirado) return 0;
+            long p = 1;
+            for (Turno o : fila(t.eventoId).cola) {
+                if (o == t) return p;
+                if (!o.retirado) p++;
+            }
+            return 0;
+        }
+
+        /** Espera estimada en segundos según la posición y la tasa. */
+        double esperaEstimada(Turno t) {
+            Fila f = fila(t.eventoId);
+            long p = posicion(t);
+            if (p == 0) return 0;
+            return ((p - 1) * f.tasa.intervalo + f.esperaFicha()) / 1e9;
+        }
+
+        /**
+         * Intenta admitir el turno sin bloquear: debe ser la cabeza de la
+         * fila y debe haber ficha. Si el evento se agotó, retira el turno
+         * y lanza IllegalArgumentException; si el turno venció por no
+         * intentar a tiempo, lanza IllegalStateException.
+         */
+        boolean intentarAdmitir(Turno t) {
+            if (t.admitido) return true;
+            if (t.vencido) throw new IllegalStateException("Turno vencido: se perdio el lugar en la fila");
+            Check.require(!t.retirado, "Turno retirado");
+            t.visto = System.nanoTime();
+            Fila f = fila(t.eventoId);
+            Evento e = core.obtenerEventoPorId(t.eventoId);
+            if (e == null || core.libres(e) < t.cantidad) {
+                retirar(t);
+                throw new IllegalArgumentException("Agotado mientras esperaba");
+            }
+            f.limpiarCabeza();
+            if (f.cola.peek() != t || !f.tomarFicha()) return false;
+            if (!t.admitir()) throw new IllegalStateException("Turno vencido: se perdio el lugar en la fila");
+            f.cola.remove(t);
+            return true;
+        }
+
+        /** Espera (estacionando el hilo) hasta ser admitido o vencer el plazo. */
+        boolean esperarAdmision(Turno t, long plazoMs) {
+            long limite = System.nanoTime() + plazoMs * 1_000_000L;
+            while (!intentarAdmitir(t)) {
+                long resto = limite - System.nanoTime();
+                if (resto <= 0) return false;
+                long pausa = Math.max(50_000L, fila(t.eventoId).esperaFicha());
+                LockSupport.parkNanos(Math.min(pausa, Math.min(resto, 5_000_000L)));
+            }
+            return true;
+        }
+
+        /** Abandona la fila (o el turno admitido no usado). */
+        void retirar(Turno t) {
+            if (t.admitido || t.retirado) return;
+            t.retirado = true;
+            fila(t.eventoId).limpiarCabeza();
+        }
+
+        /**
+         * Compra completa a través de la sala: entra, espera su turno y
+         * vende. @throws IllegalStateException si vence el plazo.
+         */
+        Venta comprar(int eventoId, int clienteId, int[] ids, String codigoPromo, long plazoMs) {
+            Turno t = entrar(eventoId, ids.length);
+            if (!esperarAdmision(t, plazoMs)) {
+                retirar(t);
+                throw new IllegalStateException("Tiempo de espera agotado en la fila");
+            }
+            return core.venderEntradas(eventoId, clienteId, ids, codigoPromo);
+        }
+
+        /** Personas en la fila del evento. */
+        int enFila(int eventoId) {
+            Fila f = filas.get(eventoId);
+            return f == null ? 0 : f.cola.size();
+        }
+    }
+
+    /**
+     * Generación asíncrona de tickets (un archivo por asiento). La venta
+     * agrega una línea al diario "pendientes.log" (canal abierto en modo
+     * append) antes de su commit; si al final no se confirma, la anota
+     * como hecha sin imprimir. Ya fuera del monitor, el trabajo se encola
+     * en una cola acotada (si está llena, espera: contrapresión).
+     * Hilos de fondo toman lotes, escriben cada ticket de forma atómica
+     * (temporal + move) y anotan el lote en "hechos.log". Al iniciar, se
+     * reencolan los pendientes sin marca de hecho, así toda venta
+     * confirmada termina con sus tickets aunque la aplicación se reinicie.
+     * El diario no fuerza fsync: cubre caídas del proceso, no del equipo.
+     * Los IDs de venta se reinician en cada ejecución, así que archivos y
+     * marcas usan la clave corrida-venta. Los hilos son daemon y un hook
+     * de apagado vacía la cola en cualquier salida de la JVM.
+     */
+    static class EmisorTickets {
+        private static final int LOTE = 64;
+
+        /** Identificador de esta ejecución (instante de arranque). */
+        private static final String CORRIDA = String.format("%1$tY%1$tm%1$td%1$tH%1$tM%1$tS%1$tL", LocalDateTime.now());
+
+        /** Datos de una venta ya confirmada, congelados para imprimir. */
+        static class Trabajo {
+            private final String corrida;
+            private final int ventaId;
+            private final String evento, funcion, cliente;
+            private final long bruto, desc;
+            private final String[] asientos;
+
+            Trabajo(String corrida, int ventaId, String evento, String funcion, String cliente,
+                    long bruto, long desc, String[] asientos) {
+                this.corrida = corrida;
+                this.ventaId = ventaId;
+                this.evento = evento;
+                this.funcion = funcion;
+                this.cliente = cliente;
+                this.bruto = bruto;
+                this.desc = desc;
+                this.asientos = asientos;
+            }
+
+            /** Clave única entre ejecuciones: nombra archivos y marcas de hecho. */
+            String clave() { return corrida + "-" + ventaId; }
+
+            /** Línea de diario: campos separados por tabulador. */
+            String linea() {
+                return corrida + "\t" + ventaId + "\t" + limpio(evento) + "\t" + limpio(funcion) + "\t" + limpio(cliente) +
+                       "\t" + bruto + "\t" + desc + "\t" + String.join(",", asientos);
+            }
+
+            static Trabajo desdeLinea(String l) {
+                String[] c = l.split("\t", -1);
+                return new Trabajo(c[0], Integer.parseInt(c[1]), c[2], c[3], c[4],
+                                   Long.parseLong(c[5]), Long.parseLong(c[6]), c[7].split(","));
+            }
+
+            private static String limpio(String x) {
+                return x == null ? "" : x.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+            }
+        }
+
+        /** Arma el trabajo con las etiquetas y montos de la venta. */
+        static Trabajo trabajo(Venta v, Evento e, Cliente c) {
+            int[] ids = v.getAsientosIds();
+            String[] etiq = new String[ids.length];
+            for (int i = 0; i < ids.length; i++) etiq[i] = e.getPlano().etiqueta(ids[i]);
+            return new Trabajo(CORRIDA, v.getId(), e.getNombre(),
+                               e.getFuncion() == null ? "" : e.getFuncion().withNano(0).toString(),
+                               c == null ? "" : c.getNombre(), v.getBruto(), v.getDesc(), etiq);
+        }
+
+        private final Path dir, pendientes, hechos;
+        private final FileChannel diario;
+        private final BlockingQueue<Trabajo> cola;
+        private final List<Thread> hilos = new ArrayList<>();
+        private final AtomicInteger emitidos = new AtomicInteger(), esperas = new AtomicInteger();
+        private volatile boolean cerrando;
+
+        /**
+         * Abre el directorio, compacta los diarios, reencola lo pendiente
+         * y arranca los hilos de fondo.
+         */
+        EmisorTickets(Path dir, int capacidadCola, int hilosFondo) throws IOException {
+            this.dir = dir;
+            this.pendientes = dir.resolve("pendientes.log");
+            this.hechos = dir.resolve("hechos.log");
+            this.cola = new ArrayBlockingQueue<>(capacidadCola);
+            Files.createDirectories(dir);
+            List<Trabajo> reencolar = recuperar();
+            this.diario = FileChannel.open(pendientes, StandardOpenOption.CREATE,
+                                           StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            for (int i = 0; i < hilosFondo; i++) {
+                Thread t = new Thread(this::trabajar, "tickets-" + i);
+                t.setDaemon(true);
+                t.start();
+                hilos.add(t);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(this::cerrar, "tickets-cierre"));
+            for (Trabajo t : reencolar) encolar(t);
+        }
+
+        /** Lee los diarios y deja en "pendientes.log" solo lo no emitido. */
+        private List<Trabajo> recuperar() throws IOException {
+            Set<String> listos = new HashSet<>();
+            if (Files.exists(hechos))
+                for (String l : Files.readAllLines(hechos, StandardCharsets.UTF_8))
+                    if (!l.isBlank()) listos.add(l.trim());
+            List<Trabajo> faltan = new ArrayList<>();
+            List<String> lineas = new ArrayList<>();
+            if (Files.exists(pendientes))
+                for (String l : Files.readAllLines(pendientes, StandardCharsets.UTF_8)) {
+                    if (l.isBlank()) continue;
+                    Trabajo t = Trabajo.desdeLinea(l);
+                    if (!listos.contains(t.clave())) { faltan.add(t); lineas.add(l); }
+                }
+            Path tmp = dir.resolve("pendientes.tmp");
+            Files.write(tmp, lineas, StandardCharsets.UTF_8);
+            Files.move(tmp, pendientes, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(hechos);
+            return faltan;
+        }
+
+        /**
+         * Anota el trabajo en el diario (una escritura, sin fsync). Se llama
+         * antes del commit de la venta: si falla, la venta no se confirma.
+         */
+        void anotar(Trabajo t) throws IOException {
+            ByteBuffer b = ByteBuffer.wrap((t.linea() + "\n").getBytes(StandardCharsets.UTF_8));
+            synchronized (diario) {
+                while (b.hasRemaining()) diario.write(b);
+            }
+        }
+
+        /** Marca como hecho un trabajo anotado cuya venta no se confirmó. */
+        void anular(Trabajo t) {
+            try {
+                synchronized (this) {
+                    Files.writeString(hechos, t.clave() + "\n", StandardCharsets.UTF_8,
+                                      StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+            } catch (IOException ex) {
+                System.err.println("Tickets: no se pudo anular la venta " + t.ventaId + ": " + ex.getMessage());
+            }
+        }
+
+        /** Encola un trabajo ya anotado (bloquea si la cola está llena). */
+        void encolar(Trabajo t) {
+            if (!cola.offer(t)) {
+                esperas.incrementAndGet();
+                try { cola.put(t); }
+                catch (InterruptedException ex) { Thread.currentThread().interrupt(); }
+            }
+        }
+
+        private void trabajar() {
+            List<Trabajo> lote = new ArrayList<>(LOTE);
+            while (!cerrando || !cola.isEmpty()) {
+                try {
+                    Trabajo t = cola.poll(200, java.util.concurrent.TimeUnit.MILLISECONDS);
+                    if (t == null) continue;
+                    lote.add(t);
+                    cola.drainTo(lote, LOTE - 1);
+                    StringBuilder listos = new StringBuilder();
+                    for (Trabajo x : lote) {
+                        escribir(x);
+                        listos.append(x.clave()).append('\n');
+                    }
+                    synchronized (this) {
+                        Files.writeString(hechos, listos, StandardCharsets.UTF_8,
+                                          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    }
+                    emitidos.addAndGet(lote.size());
+                } catch (InterruptedException ex) {
+                    return;
+                } catch (IOException ex) {
+                    // Sin marca de hecho: se reintenta en el próximo arranque
+                    System.err.println("Tickets: " + ex.getMessage());
+                } finally {
+                    lote.clear();
+                }
+            }
+        }
+
+        /** Un archivo por asiento; montos repartidos sin perder centavos. */
+        private void escribir(Trabajo t) throws IOException {
+            int n = t.asientos.length;
+            for (int i = 0; i < n; i++) {
+                long b = t.bruto / n + (i < t.bruto % n ? 1 : 0);
+                long d = t.desc / n + (i < t.desc % n ? 1 : 0);
+                String txt = "==============================\n" +
+                             " TEATRO MORO - ENTRADA\n" +
+                             "==============================\n" +
+                             "Evento : " + t.evento + "\n" +
+                             (t.funcion.isEmpty() ? "" : "Funcion: " + t.funcion + "\n") +
+                             "Asiento: " + t.asientos[i] + "\n" +
+                             "Venta  : " + t.ventaId + " (" + (i + 1) + "/" + n + ")\n" +
+                             "Cliente: " + t.cliente + "\n" +
+                             "Precio : " + Dinero.formato(b) + "\n" +
+                             "Desc.  : " + Dinero.formato(d) + "\n" +
+                             "Total  : " + Dinero.formato(b - d) + "\n" +
+                             "==============================\n";
+                Path destino = dir.resolve("ticket-" + t.clave() + "-" + t.asientos[i] + ".txt");
+                Path tmp = dir.resolve(destino.getFileName() + ".tmp");
+                Files.writeString(tmp, txt, StandardCharsets.UTF_8);
+                Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+
+        /** Termina de emitir lo encolado, detiene los hilos y cierra el diario. */
+        void cerrar() {
+            cerrando = true;
+            for (Thread t : hilos) {
+                try { t.join(); }
+                catch (InterruptedException ex) { Thread.currentThread().interrupt(); return; }
+            }
+            synchronized (diario) {
+                try { diario.close(); }
+                catch (IOException ex) { System.err.println("Tickets: " + ex.getMessage()); }
+            }
+        }
+
+        int emitidos() { return emitidos.get(); }
+        int enCola() { return cola.size(); }
+        int esperasPorColaLlena() { return esperas.get(); }
+    }
+
+    /**
+     * Feed de cambios de asientos: cada venta, anulación o retención
+     * publica un registro por asiento (evento, asiento, estado) con un
+     * número de secuencia creciente, en un buffer circular preasignado.
+     * Escribir nunca espera a los lectores: cuando el buffer da la vuelta
+     * se pisan los registros más viejos. Cada lector guarda su propia
+     * secuencia y lee sin bloqueos; si quedó atrás más de la capacidad,
+     * se entera (perdidos > 0) y debe volver a pedir el plano completo.
+     */
+    static class FeedAsientos {
+        static final int LIBRE = 0, VENDIDO = 1, RETENIDO = 2;
+        private static final String[] NOMBRES = {"LIBRE", "VENDIDO", "RETENIDO"};
+
+        /** Un cambio de un asiento. */
+        static class Cambio {
+            private final long seq;
+            private final int eventoId, asientoId, estado;
+
+            Cambio(long seq, int eventoId, int asientoId, int estado) {
+                this.seq = seq;
+                this.eventoId = eventoId;
+                this.asientoId = asientoId;
+                this.estado = estado;
+            }
+
+            long getSeq() { return seq; }
+            int getEventoId() { return eventoId; }
+            int getAsientoId() { return asientoId; }
+            int getEstado() { return estado; }
+
+            @Override
+            public String toString() {
+                return "#" + seq + " evento " + eventoId + " asiento " + asientoId + " -> " + NOMBRES[estado];
+            }
+        }
+
+        /** Resultado de una lectura: cambios, próxima secuencia y registros perdidos. */
+        static class Lectura {
+            private final List<Cambio> cambios;
+            private final long siguiente, perdidos;
+
+            Lectura(List<Cambio> cambios, long siguiente, long perdidos) {
+                this.cambios = cambios;
+                this.siguiente = siguiente;
+                this.perdidos = perdidos;
+            }
+
+            List<Cambio> getCambios() { return cambios; }
+            long getSiguiente() { return siguiente; }
+            long getPerdidos() { return perdidos; }
+        }
+
+        // Por ranura: secuencia publicada (-1 = escribiendo) y datos empaquetados
+        // (evento << 32 | asiento << 8 | estado). La secuencia hace de seqlock.
+        private final AtomicLongArray seqs, datos;
+        private final int mascara;
+        private final AtomicLong publicados = new AtomicLong();   // próxima secuencia a escribir
+
+        /** @param capacidad registros retenidos (se redondea a potencia de 2) */
+        FeedAsientos(int capacidad) {
+            Check.require(capacidad >= 2, "Capacidad invalida");
+            int cap = Integer.highestOneBit(capacidad - 1) << 1;
+            this.seqs = new AtomicLongArray(cap);
+            this.datos = new AtomicLongArray(cap);
+            this.mascara = cap - 1;
+            for (int i = 0; i < cap; i++) seqs.set(i, -1 - i);   // ninguna ranura válida al inicio
+        }
+
+        int capacidad() { return mascara + 1; }
+
+        /** Secuencia que tendrá el próximo cambio (para suscribirse "desde ahora"). */
+        long ultima() { return publicados.get(); }
+
+        /** Publica un registro por asiento; solo escribe, nunca espera lectores. */
+        synchronized void publicar(int eventoId, int[] ids, int estado) {
+            long seq = publicados.get();
+            for (int id : ids) {
+                int i = (int) (seq & mascara);
+                seqs.set(i, -1);
+                datos.set(i, ((long) eventoId << 32) | ((long) id << 8) | estado);
+                seqs.set(i, seq);
+                seq++;
+            }
+            publicados.set(seq);
+        }
+
+        /**
+         * Lee hasta {@code max} cambios desde la secuencia {@code desde}.
+         * Si esos registros ya se pisaron, salta al más viejo disponible
+         * e informa cuántos se perdieron.
+         */
+        Lectura leer(long desde, int max) {
+            long hasta = publicados.get(), perdidos = 0;
+            if (hasta - desde > capacidad()) {
+                perdidos = hasta - capacidad() - desde;
+                desde = hasta - capacidad();
+            }
+            List<Cambio> res = new ArrayList<>();
+            long seq = desde;
+            while (seq < hasta && res.size() < max) {
+                int i = (int) (seq & mascara);
+                long s1 = seqs.get(i), d = datos.get(i), s2 = seqs.get(i);
+                if (s1 != seq || s2 != seq) {
+                    // Pisado mientras se leía: saltar a lo más viejo que sigue vigente
+                    long nuevo = publicados.get() - capacidad();
+                    if (nuevo <= seq) break;                    // (no debería pasar)
+                    perdidos += nuevo - seq;
+                    seq = nuevo;
+                    continue;
+                }
+                res.add(new Cambio(seq, (int) (d >>> 32), (int) ((d >>> 8) & 0xFF_FFFF), (int) (d & 0xFF)));
+                seq++;
+            }
+            return new Lectura(res, seq, perdidos);
+        }
+
+        /** Cursor de un lector (pantalla, canal web); no es compartido entre hilos. */
+        static class Suscripcion {
+            private final FeedAsientos feed;
+            private long siguiente;
+
+            Suscripcion(FeedAsientos feed, long desde) {
+                this.feed = feed;
+                this.siguiente = desde;
+            }
+
+            /** Lee lo nuevo desde la última llamada y avanza el cursor. */
+            Lectura leer(int max) {
+                Lectura l = feed.leer(siguiente, max);
+                siguiente = l.getSiguiente();
+                return l;
+            }
+
+            long getSiguiente() { return siguiente; }
         }
+
+        /** Suscripción que arranca en el próximo cambio. */
+        Suscripcion suscribir() { return new Suscripcion(this, ultima()); }
     }
 
 
@@ -689,22 +4162,191 @@ public class MainTeatroMoro {
     /** Motor de negocio compartido por los menús. */
     private static TeatroMoroCore core;
 
+    /** Sala de espera que regula el acceso a las ventas por evento. */
+    private static SalaEspera sala;
+
+    /** Emisor de tickets en segundo plano (null si está desactivado). */
+    private static EmisorTickets emisor;
+
+    /**
+     * Lectores del feed para la vista "cambios desde la última consulta",
+     * uno por evento: consultar un evento no consume los cambios de otro.
+     */
+    private static final Map<Integer, FeedAsientos.Suscripcion> cambios = new HashMap<>();
+
+    /** Operaciones de venta numeradas en esta ejecución (claves de solicitud). */
+    private static int operaciones;
+
+    /** Carrito en curso (null = sin carrito). */
+    private static Carrito carrito;
+
+    /** Salida de consola con búfer (una escritura por pantalla). */
+    private static final Terminal OUT = new Terminal();
+
+    /** Plano en pantalla, redibujado por diferencias cuando es posible. */
+    private static final PantallaPlano PLANO = new PantallaPlano();
+
+    /**
+     * Capa de salida con búfer: acumula todo lo impreso y lo envía en
+     * una sola escritura al vaciarse (antes de cada lectura de teclado).
+     * Cuenta las líneas emitidas desde una marca para saber si lo que
+     * se dibujó arriba sigue visible en pantalla.
+     */
+    static class Terminal {
+        private final StringBuilder buf = new StringBuilder(4096);
+        private final boolean cursor;
+        private final int alto;
+        private int lineas;
+
+        Terminal() {
+            String term = System.getenv("TERM");
+            this.cursor = System.console() != null && term != null && !term.equals("dumb");
+            int h = 24;
+            try { h = Integer.parseInt(System.getenv("LINES")); } catch (Exception ignore) { /* por defecto */ }
+            this.alto = h;
+        }
+
+        void print(Object o) {
+            String t = String.valueOf(o);
+            for (int i = 0; i < t.length(); i++) if (t.charAt(i) == '\n') lineas++;
+            buf.append(t);
+        }
+
+        void println(Object o) { print(o); println(); }
+        void println() { buf.append('\n'); lineas++; }
+
+        /** Secuencia de control: no cuenta como líneas de texto. */
+        void control(String seq) { buf.append(seq); }
+
+        /** Envía el búfer completo en una escritura. */
+        void flush() {
+            if (buf.length() == 0) return;
+            System.out.print(buf);
+            System.out.flush();
+            buf.setLength(0);
+        }
+
+        /** Vacía la salida y lee una línea (el eco del usuario ocupa una línea). */
+        String leerLinea() {
+            flush();
+            lineas++;
+            return SC.nextLine();
+        }
+
+        /** Posicionamiento ANSI disponible (terminal interactiva, no "dumb", colores ON). */
+        boolean admiteCursor() { return cursor && USE_COLORS; }
+
+        int alto() { return alto; }
+        int lineasDesdeMarca() { return lineas; }
+        void marcar() { lineas = 0; }
+    }
+
+    /**
+     * Plano de ocupación fijado arriba de la pantalla. La primera vez (o
+     * si ya no está visible) se dibuja un cuadro completo; después solo
+     * se reescriben las butacas que cambiaron y la cabecera, con
+     * posicionamiento ANSI. Sin soporte de cursor, siempre cuadro completo.
+     */
+    static class PantallaPlano {
+        private static final String ESC = "\u001B[";
+        private int eventoId = -1, filas, columnas;
+        private boolean[] celdas;
+        private String cabecera;
+        private MapaZonas zonas;
+
+        void mostrar(TeatroMoroCore core, int id) {
+            Evento e = core.obtenerEventoPorId(id);
+            if (e == null || !OUT.admiteCursor()) {
+                eventoId = -1;
+                OUT.println(core.planoAscii(id));
+                return;
+            }
+            int F = e.getFilas(), K = e.getColumnas();
+            BitSet oc = core.ocupacionVisible(e);
+            boolean[] nuevo = new boolean[F * K];
+            for (int i = 0; i < nuevo.length; i++) nuevo[i] = oc.get(core.asientosBase[i].getId());
+            String cab = core.cabeceraPlano(e, oc);
+            String lineaZonas = e.getZonas() == null ? null : "Zonas: " + core.resumenZonas(e);
+            int altoPlano = F + 5 + (lineaZonas == null ? 0 : 1);
+
+            boolean visible = id == eventoId && F == filas && K == columnas && e.getZonas() == zonas
+                              && OUT.lineasDesdeMarca() + altoPlano < OUT.alto() - 1;
+            if (visible) {
+                // Solo celdas modificadas: fila de pantalla 4+f, columna 6+3c
+                for (int i = 0; i < nuevo.length; i++) {
+                    if (nuevo[i] == celdas[i]) continue;
+                    OUT.control(ESC + (4 + i / K) + ";" + (6 + 3 * (i % K)) + "H"
+                                + TeatroMoroCore.celdaPlano(nuevo[i], zonas, core.asientosBase[i].getId()));
+                }
+                if (!cab.equals(cabecera)) OUT.control(ESC + "1;1H" + ESC + "2K" + cab);
+                if (lineaZonas != null) OUT.control(ESC + (F + 6) + ";1H" + ESC + "2K" + lineaZonas);
+                OUT.control(ESC + (altoPlano + 1) + ";1H" + ESC + "J");
+            } else {
+                OUT.control(ESC + "H" + ESC + "2J");
+                OUT.print(core.planoAscii(id));
+            }
+            OUT.marcar();
+            eventoId = id; filas = F; columnas = K; celdas = nuevo; cabecera = cab; zonas = e.getZonas();
+        }
+    }
+
     /** Punto de entrada. */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(EstresMultiproceso.ARG_TRABAJADOR)) {
+            EstresMultiproceso.trabajador(args);
+            return;
+        }
         inicializar();
         menuPrincipal();
     }
 
     /**
      * Carga datos iniciales del sistema:
-     * - Plano base 8x12 (96), precio base 5000.
+     * - Plano base 8x12 (96) o el indicado con -Dteatro.sala=FxC, precio base 5000.
      * - Tres clientes de ejemplo.
+     * - Sala de espera: 5 ventas/s por evento, ráfaga de 10.
+     * - Inventario compartido si se indicó -Dteatro.inventario.
+     * - Emisor de tickets en la carpeta -Dteatro.tickets (sin ella, desactivado).
      */
     private static void inicializar() {
-        core = new TeatroMoroCore(50, 8, 12, 200, 5000.0);
+        int filas = 8, columnas = 12;
+        String dim = System.getProperty("teatro.sala", "8x12").trim().toLowerCase(Locale.ROOT);
+        if (dim.matches("\\d{1,3}x\\d{1,3}")) {
+            filas = Integer.parseInt(dim.substring(0, dim.indexOf('x')));
+            columnas = Integer.parseInt(dim.substring(dim.indexOf('x') + 1));
+        } else {
+            OUT.println("Sala invalida (-Dteatro.sala=" + dim + "); se usa 8x12.");
+        }
+        try {
+            core = new TeatroMoroCore(50, filas, columnas, 200, Dinero.centavos(5000.0));
+        } catch (IllegalArgumentException e) {
+            OUT.println(e.getMessage() + " (-Dteatro.sala=" + dim + "); se usa 8x12.");
+            core = new TeatroMoroCore(50, 8, 12, 200, Dinero.centavos(5000.0));
+        }
         core.altaCliente("Ana Perez",  TipoCliente.ESTUDIANTE);
         core.altaCliente("Luis Munoz", TipoCliente.TERCERA_EDAD);
         core.altaCliente("Maria Lopez",TipoCliente.GENERAL);
+        sala = new SalaEspera(core, 5.0, 10);
+
+        String ruta = System.getProperty("teatro.inventario");
+        if (ruta != null) {
+            try {
+                core.usarInventario(InventarioCompartido.abrir(Path.of(ruta), MAX_EVENTOS_INVENTARIO, core.capacidadBase()));
+                OUT.println("Inventario compartido: " + ruta);
+            } catch (Exception e) {
+                OUT.println("No se pudo abrir el inventario compartido: " + e.getMessage());
+            }
+        }
+
+        String dirTickets = System.getProperty("teatro.tickets", "");
+        if (!dirTickets.isBlank()) {
+            try {
+                emisor = new EmisorTickets(Path.of(dirTickets), 256, 2);
+                core.usarEmisor(emisor);
+            } catch (Exception e) {
+                OUT.println("Tickets desactivados: " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -720,22 +4362,27 @@ public class MainTeatroMoro {
      */
     private static void menuPrincipal() {
         while (true) {
-            System.out.println("\n=== TEATRO MORO - Sistema de Ventas ===");
-            System.out.println("1) Ver plano de asientos");
-            System.out.println("2) Vender entradas (max " + MAX_ASIENTOS_POR_VENTA + ")");
-            System.out.println("3) Gestion de clientes");
-            System.out.println("4) Gestion de eventos");
-            System.out.println("5) Reportes");
-            System.out.println("6) Pruebas rapidas");
-            System.out.println("0) Salir");
-            System.out.print("Opcion [0-6]: ");
-
-            String entrada = SC.nextLine().trim();
+            OUT.println("\n=== TEATRO MORO - Sistema de Ventas ===");
+            OUT.println("1) Ver plano de asientos");
+            OUT.println("2) Vender entradas (max " + MAX_ASIENTOS_POR_VENTA + ")");
+            OUT.println("3) Gestion de clientes");
+            OUT.println("4) Gestion de eventos");
+            OUT.println("5) Reportes");
+            OUT.println("6) Pruebas rapidas");
+            OUT.println("C) Carrito (varias funciones)");
+            OUT.println("0) Salir");
+            OUT.print("Opcion [0-6, C]: ");
+
+            String entrada = OUT.leerLinea().trim();
 
             // Tecla oculta: no aparece en el menú, pero permite alternar colores.
             if ("7".equals(entrada)) {
                 USE_COLORS = !USE_COLORS;
-                System.out.println("Colores: " + (USE_COLORS ? "ON" : "OFF"));
+                OUT.println("Colores: " + (USE_COLORS ? "ON" : "OFF"));
+                continue;
+            }
+            if ("C".equalsIgnoreCase(entrada)) {
+                menuCarrito();
                 continue;
             }
 
@@ -743,11 +4390,11 @@ public class MainTeatroMoro {
             try {
                 op = Integer.parseInt(entrada);
             } catch (Exception e) {
-                System.out.println("Ingrese un numero entre 0 y 6.");
+                OUT.println("Ingrese un numero entre 0 y 6.");
                 continue;
             }
             if (op < 0 || op > 6) {
-                System.out.println("Ingrese un numero entre 0 y 6.");
+                OUT.println("Ingrese un numero entre 0 y 6.");
                 continue;
             }
 
@@ -758,7 +4405,10 @@ public class MainTeatroMoro {
                 case 4 -> menuEventos();
                 case 5 -> menuReportes();
                 case 6 -> pruebasRapidas();
-                case 0 -> { System.out.println("Hasta luego."); return; }
+                case 0 -> {
+                    if (emisor != null) emisor.cerrar();
+                    OUT.println("Hasta luego."); OUT.flush(); return;
+                }
             }
         }
     }
@@ -771,14 +4421,14 @@ public class MainTeatroMoro {
      */
     private static int pedirOpcion(String label, int min, int max) {
         while (true) {
-            System.out.print(label + " [" + min + "-" + max + "]: ");
-            String s = SC.nextLine().trim();
+            OUT.print(label + " [" + min + "-" + max + "]: ");
+            String s = OUT.leerLinea().trim();
             try {
                 int v = Integer.parseInt(s);
                 if (v < min || v > max) throw new NumberFormatException();
                 return v;
             } catch (Exception e) {
-                System.out.println("Ingrese un numero entre " + min + " y " + max + ".");
+                OUT.println("Ingrese un numero entre " + min + " y " + max + ".");
             }
         }
     }
@@ -787,12 +4437,12 @@ public class MainTeatroMoro {
      * Pide entero con posibilidad de cancelar (enter = null).
      */
     private static Integer pedirIntCancelable(String label) {
-        System.out.print(label + " (enter para cancelar): ");
-        String s = SC.nextLine().trim();
+        OUT.print(label + " (enter para cancelar): ");
+        String s = OUT.leerLinea().trim();
         if (s.isEmpty()) return null;
         try { return Integer.parseInt(s); }
         catch (Exception e) {
-            System.out.println("Ingrese un numero valido.");
+            OUT.println("Ingrese un numero valido.");
             return pedirIntCancelable(label);
         }
     }
@@ -802,21 +4452,36 @@ public class MainTeatroMoro {
      */
     private static String pedirTextoNoVacio(String label) {
         while (true) {
-            System.out.print(label);
-            String s = SC.nextLine();
-            if (s != null && !s.trim().isEmpty()) return s.trim();
-            System.out.println("Texto vacio. Intente nuevamente.");
+            OUT.print(label);
+            String s = OUT.leerLinea();
+            if (s != null && !s.trim().isEmpty()) return s.trim();
+            OUT.println("Texto vacio. Intente nuevamente.");
+        }
+    }
+
+    /**
+     * Pide un número decimal (double) validado.
+     */
+    private static double pedirDouble(String label) {
+        while (true) {
+            OUT.print(label);
+            try { return Double.parseDouble(OUT.leerLinea().trim()); }
+            catch (Exception e) { OUT.println("Ingrese numero decimal valido."); }
         }
     }
 
     /**
-     * Pide un número decimal (double) validado.
+     * Pide fecha y hora "AAAA-MM-DD HH:MM" o solo "HH:MM" (día de hoy).
      */
-    private static double pedirDouble(String label) {
+    private static LocalDateTime pedirFechaHora(String label) {
         while (true) {
-            System.out.print(label);
-            try { return Double.parseDouble(SC.nextLine().trim()); }
-            catch (Exception e) { System.out.println("Ingrese numero decimal valido."); }
+            OUT.print(label);
+            String s = OUT.leerLinea().trim();
+            try {
+                if (s.length() <= 5)
+                    return LocalDate.now().atTime(LocalTime.parse(s.length() == 4 ? "0" + s : s));
+                return LocalDateTime.parse(s.replace(' ', 'T'));
+            } catch (Exception e) { OUT.println("Formato invalido."); }
         }
     }
 
@@ -828,16 +4493,17 @@ public class MainTeatroMoro {
      */
     private static Integer elegirEvento() {
         while (true) {
-            System.out.println("Eventos:");
+            OUT.println("Eventos:");
             for (var e : core.getEventos()) {
                 int libres = core.libres(e);
-                System.out.println("ID " + e.getId() + " - " + e.getNombre() +
-                                   " [libres " + libres + "/" + e.capacidad() + "]");
+                OUT.println("ID " + e.getId() + " - " + e.getNombre() +
+                            (e.getFuncion() == null ? "" : " (" + e.getFuncion() + ")") +
+                            " [libres " + libres + "/" + e.capacidad() + "]");
             }
             Integer id = pedirIntCancelable("ID de evento (0 para salir)");
             if (id == null || id == 0) return null;
             if (core.obtenerEventoPorId(id) != null) return id;
-            System.out.println("Evento no encontrado. Intente nuevamente.");
+            OUT.println("Evento no encontrado. Intente nuevamente.");
         }
     }
 
@@ -846,13 +4512,13 @@ public class MainTeatroMoro {
      */
     private static Integer elegirCliente() {
         while (true) {
-            System.out.println("Clientes:");
+            OUT.println("Clientes:");
             for (Cliente c : core.getClientes())
-                if (c != null) System.out.println("ID " + c.getId() + " - " + c.getNombre() + " (" + c.getTipo() + ")");
+                if (c != null) OUT.println("ID " + c.getId() + " - " + c.getNombre() + " (" + c.getTipo() + ")");
             Integer id = pedirIntCancelable("ID de cliente (0 para salir)");
             if (id == null || id == 0) return null;
             if (core.buscarClientePorId(id) != null) return id;
-            System.out.println("Cliente no encontrado. Intente nuevamente.");
+            OUT.println("Cliente no encontrado. Intente nuevamente.");
         }
     }
 
@@ -878,9 +4544,8 @@ public class MainTeatroMoro {
                 int idR = core.idDesdeEtiqueta(eventoId, lr[1]);
                 if (idL == -1 || idR == -1) continue;
                 // Deben pertenecer a la MISMA fila y ser un rango creciente
-                Asiento aL = Check.buscar(core.asientosBase, idL);
-                Asiento aR = Check.buscar(core.asientosBase, idR);
-                if (aL.getFila() != aR.getFila() || idL > idR) continue;
+                PlanoEvento pl = core.obtenerEventoPorId(eventoId).getPlano();
+                if (pl.fila(idL) != pl.fila(idR) || idL > idR) continue;
                 for (int id = idL; id <= idR; id++) out.add(id);
             } else {
                 int id = core.idDesdeEtiqueta(eventoId, t);
@@ -926,24 +4591,48 @@ public class MainTeatroMoro {
      *   1) Ocupación (O/X)
      *   2) Mapa de IDs
      *   3) Libres por fila
+     *   4) Ocupación en una fecha/hora pasada
      */
     private static void verPlano() {
         Integer eventoId = elegirEvento();
         if (eventoId == null) return;
 
         while (true) {
-            System.out.println("\n-- Ver plano --");
-            System.out.println("1) Ocupacion (O/X)");
-            System.out.println("2) Mapa de IDs");
-            System.out.println("3) Ver libres por fila");
-            System.out.println("0) Volver");
-            int op = pedirOpcion("Opcion", 0, 3);
+            OUT.println("\n-- Ver plano --");
+            OUT.println("1) Ocupacion (O/X)");
+            OUT.println("2) Mapa de IDs");
+            OUT.println("3) Ver libres por fila");
+            OUT.println("4) Ocupacion en fecha/hora");
+            OUT.println("5) Mapa de calor de la temporada");
+            OUT.println("6) Cambios desde la ultima consulta");
+            OUT.println("7) Vista por ventana / resumen (salas grandes)");
+            OUT.println("0) Volver");
+            int op = pedirOpcion("Opcion", 0, 7);
             if (op == 0) return;
 
             if (op == 1) {
-                System.out.println(core.planoAscii(eventoId));
+                PLANO.mostrar(core, eventoId);
             } else if (op == 2) {
-                System.out.println(core.planoConIds(eventoId));
+                OUT.println(core.planoConIds(eventoId));
+            } else if (op == 4) {
+                LocalDateTime t = pedirFechaHora("Fecha y hora (AAAA-MM-DD HH:MM, o HH:MM de hoy): ");
+                OUT.println(core.planoAscii(eventoId, t));
+            } else if (op == 5) {
+                OUT.println(core.planoCalor());
+            } else if (op == 7) {
+                navegarPlano(eventoId);
+            } else if (op == 6) {
+                FeedAsientos.Lectura l = cambios.computeIfAbsent(eventoId, k -> new FeedAsientos.Suscripcion(core.getFeed(), 0))
+                                                .leer(Integer.MAX_VALUE);
+                if (l.getPerdidos() > 0)
+                    OUT.println("(" + l.getPerdidos() + " cambios antiguos ya no estan en el feed; ver el plano completo)");
+                int n = 0;
+                for (FeedAsientos.Cambio c : l.getCambios())
+                    if (c.getEventoId() == eventoId) {
+                        OUT.println(c + " (" + core.etiquetaDesdeId(eventoId, c.getAsientoId()) + ")");
+                        n++;
+                    }
+                if (n == 0) OUT.println("Sin cambios en este evento.");
             } else {
                 // (3) Mostrar todas las butacas libres en una fila indicada
                 var e = core.obtenerEventoPorId(eventoId);
@@ -957,12 +4646,63 @@ public class MainTeatroMoro {
                 }
                 List<String> etiquetas = new ArrayList<>();
                 for (int id : all) etiquetas.add(core.etiquetaDesdeId(eventoId, id));
-                System.out.println("Libres en fila " + (char) ('A' + fila) + ": " +
+                OUT.println("Libres en fila " + PlanoEvento.nombreFila(fila) + ": " +
                                    (all.isEmpty() ? "(ninguno)" : etiquetas));
             }
         }
     }
 
+    /**
+     * Navegación del plano por ventana para salas grandes. Comandos:
+     * w/s/a/d mueven una fila o columna, W/S/A/D una página, "ir B40"
+     * centra la ventana en una butaca, "t 10x30" cambia el tamaño,
+     * "z" muestra el resumen por bloques y "q" vuelve.
+     */
+    private static void navegarPlano(int eventoId) {
+        var e = core.obtenerEventoPorId(eventoId);
+        int nf = Math.min(10, e.getFilas()), nc = Math.min(20, e.getColumnas());
+        int f0 = 0, c0 = 0;
+        boolean resumen = false;
+        while (true) {
+            int maxF = Math.max(0, e.getFilas() - nf), maxC = Math.max(0, e.getColumnas() - nc);
+            f0 = Math.max(0, Math.min(f0, maxF));
+            c0 = Math.max(0, Math.min(c0, maxC));
+            if (resumen) OUT.println(core.planoResumen(eventoId, Math.max(1, nf / 2), Math.max(1, nc / 2)));
+            else OUT.println(core.planoVentana(eventoId, f0, c0, nf, nc));
+            OUT.print("w/s/a/d mover, W/S/A/D pagina, ir A12, t FxC, z resumen, q salir: ");
+            String cmd = OUT.leerLinea().trim();
+            if (cmd.isEmpty()) continue;
+            resumen = false;
+            switch (cmd) {
+                case "q", "Q" -> { return; }
+                case "w" -> f0--;
+                case "s" -> f0++;
+                case "a" -> c0--;
+                case "d" -> c0++;
+                case "W" -> f0 -= nf;
+                case "S" -> f0 += nf;
+                case "A" -> c0 -= nc;
+                case "D" -> c0 += nc;
+                case "z", "Z" -> resumen = true;
+                default -> {
+                    String[] t = cmd.split("\\s+");
+                    if (t.length == 2 && t[0].equalsIgnoreCase("ir")) {
+                        int id = core.idDesdeEtiqueta(eventoId, t[1]);
+                        if (id < 0) { OUT.println("Butaca invalida."); continue; }
+                        f0 = e.getPlano().fila(id) - nf / 2;
+                        c0 = e.getPlano().columna(id) - nc / 2;
+                    } else if (t.length == 2 && t[0].equalsIgnoreCase("t") && t[1].matches("\\d{1,4}[xX]\\d{1,4}")) {
+                        String[] d = t[1].toLowerCase(Locale.ROOT).split("x");
+                        nf = Math.max(1, Math.min(e.getFilas(), Integer.parseInt(d[0])));
+                        nc = Math.max(1, Math.min(e.getColumnas(), Integer.parseInt(d[1])));
+                    } else {
+                        OUT.println("Comando no reconocido.");
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Flujo de venta de entradas:
      *   - Selección de evento y cliente
@@ -978,16 +4718,93 @@ public class MainTeatroMoro {
         if (clienteId == null) return;
 
         // Muestras didácticas previas a la selección
-        System.out.println(core.planoAscii(eventoId));
-        System.out.println(core.planoConIds(eventoId));
+        PLANO.mostrar(core, eventoId);
+        OUT.println(core.planoConIds(eventoId));
 
         int cantidad = pedirOpcion("Cuantos asientos desea?", 1, MAX_ASIENTOS_POR_VENTA);
 
-        System.out.println("Metodo de seleccion:");
-        System.out.println("1) Por etiqueta (ej: A3,A4 o A3-A6)");
-        System.out.println("2) Por ID (ej: 3,4,5 o 3-6)");
-        System.out.println("3) Autocontiguos en una fila");
-        int metodo = pedirOpcion("Opcion", 1, 3);
+        int[] ids = elegirAsientos(eventoId, cantidad);
+        if (ids == null) return;
+
+        // Código promocional opcional (se valida contra la tabla del evento)
+        var e = core.obtenerEventoPorId(eventoId);
+        var c = core.buscarClientePorId(clienteId);
+        String promo;
+        Cotizacion q;
+        while (true) {
+            OUT.print("Codigo promocional (enter = ninguno): ");
+            promo = OUT.leerLinea().trim();
+            try { q = core.cotizar(e, c, ids, promo); break; }
+            catch (IllegalArgumentException ex) { OUT.println(ex.getMessage() + ". Intente nuevamente."); }
+        }
+
+        // Resumen previo a confirmar
+        List<String> etiq = new ArrayList<>();
+        for (int id : ids) etiq.add(core.etiquetaDesdeId(eventoId, id));
+
+        OUT.println("Resumen:");
+        OUT.println("- Evento: " + e.getNombre());
+        OUT.println("- Cliente: " + c.getNombre() + " (" + c.getTipo() + ", socio " + c.getNivel() + ")");
+        OUT.println("- Asientos: " + etiq + " (IDs " + Arrays.toString(ids) + ")");
+        OUT.println("- " + q);
+        // Número de operación = clave de solicitud. En consola solo se repite dentro de
+        // esta compra (reconfirmación por cambio de precio); un cliente API que reintenta
+        // tras perder la respuesta debe reenviar su propio número. Vive en memoria (15 min).
+        String clave = "caja-" + (++operaciones);
+        OUT.println("- Operacion: " + clave);
+
+        String conf = pedirTextoNoVacio("Confirmar venta? (S/N): ").toUpperCase(Locale.ROOT);
+        if (!conf.startsWith("S")) { OUT.println("Venta cancelada."); return; }
+
+        try {
+            // Paso por la sala de espera (informa posición si hay fila)
+            SalaEspera.Turno t = sala.entrar(eventoId, ids.length);
+            if (!sala.intentarAdmitir(t)) {
+                OUT.println(String.format("En fila: posicion %d, espera estimada %.1f s",
+                                          sala.posicion(t), sala.esperaEstimada(t)));
+                OUT.flush();
+                if (!sala.esperarAdmision(t, 60_000)) {
+                    sala.retirar(t);
+                    OUT.println("Tiempo de espera agotado. Intente nuevamente.");
+                    return;
+                }
+            }
+            Venta v;
+            while (true) {
+                try {
+                    v = core.venderEntradas(eventoId, clienteId, ids, promo, clave, q);
+                    break;
+                } catch (IllegalStateException precio) {
+                    // Otra venta cambió el escalón: se muestra el nuevo total y se reconfirma
+                    Cotizacion nueva = core.cotizar(e, c, ids, promo);
+                    if (nueva.mismoMonto(q)) throw precio;
+                    OUT.println("El precio cambio. Nuevo " + nueva);
+                    if (!pedirTextoNoVacio("Confirmar con el nuevo precio? (S/N): ").toUpperCase(Locale.ROOT).startsWith("S")) {
+                        OUT.println("Venta cancelada.");
+                        return;
+                    }
+                    q = nueva;
+                }
+            }
+            PLANO.mostrar(core, eventoId);       // redibuja primero: no borra la confirmación
+            OUT.println("Venta realizada (operacion " + clave + "): " + v);
+        } catch (Exception ex) {
+            OUT.println("Error: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Selección de {@code cantidad} asientos del evento por alguno de los
+     * métodos disponibles. @return los IDs, o null si no se pudo ubicar.
+     */
+    private static int[] elegirAsientos(int eventoId, int cantidad) {
+        OUT.println("Metodo de seleccion:");
+        OUT.println("1) Por etiqueta (ej: A3,A4 o A3-A6)");
+        OUT.println("2) Por ID (ej: 3,4,5 o 3-6)");
+        OUT.println("3) Autocontiguos en una fila");
+        OUT.println("4) Mejor ubicacion para el grupo (una fila o filas adyacentes)");
+        OUT.println("5) Mejor ubicacion dentro de una zona");
+        int metodo = pedirOpcion("Opcion", 1, 5);
 
         int[] ids = new int[cantidad];
 
@@ -997,7 +4814,7 @@ public class MainTeatroMoro {
                 String s = pedirTextoNoVacio("Etiquetas: ");
                 int[] tmp = parseEtiquetasLista(eventoId, s);
                 if (tmp.length != cantidad) {
-                    System.out.println("Debe ingresar exactamente " + cantidad + " asientos.");
+                    OUT.println("Debe ingresar exactamente " + cantidad + " asientos.");
                     continue;
                 }
                 ids = tmp; break;
@@ -1008,95 +4825,176 @@ public class MainTeatroMoro {
                 String s = pedirTextoNoVacio("IDs: ");
                 int[] tmp = parseIdsLista(s);
                 if (tmp.length != cantidad) {
-                    System.out.println("Debe ingresar exactamente " + cantidad + " asientos.");
+                    OUT.println("Debe ingresar exactamente " + cantidad + " asientos.");
                     continue;
                 }
                 ids = tmp; break;
             }
+        } else if (metodo == 4) {
+            // Bloque más compacto en toda la sala
+            UbicadorGrupos.Ubicacion ubic = core.ubicarGrupo(eventoId, cantidad);
+            if (ubic == null) {
+                OUT.println("No hay forma de ubicar " + cantidad + " asientos juntos.");
+                return null;
+            }
+            OUT.println("Ubicacion: " + ubic);
+            ids = ubic.getIds();
+        } else if (metodo == 5) {
+            // Zona elegida por nombre (contadores por zona, sin recorrer la sala)
+            var e = core.obtenerEventoPorId(eventoId);
+            if (e.getZonas() == null) { OUT.println("El evento no tiene zonas."); return null; }
+            OUT.println(core.resumenZonas(e));
+            String zona = pedirTextoNoVacio("Zona: ");
+            int[] enZona = core.ubicarEnZona(eventoId, zona, cantidad);
+            if (enZona == null) {
+                OUT.println("No hay " + cantidad + " asientos juntos en esa zona.");
+                return null;
+            }
+            ids = enZona;
         } else {
             // Búsqueda automática de contiguos en fila
             var e = core.obtenerEventoPorId(eventoId);
             int fila = pedirOpcion("Fila (A=1,B=2,...)", 1, e.getFilas()) - 1;
             List<Integer> pack = core.contiguosEnFila(eventoId, fila, cantidad);
             if (pack.isEmpty()) {
-                System.out.println("No hay " + cantidad + " contiguos en esa fila.");
-                return;
+                OUT.println("No hay " + cantidad + " contiguos en esa fila.");
+                return null;
             }
             for (int i = 0; i < cantidad; i++) ids[i] = pack.get(i);
         }
+        return ids;
+    }
 
-        // Resumen previo a confirmar
-        List<String> etiq = new ArrayList<>();
-        for (int id : ids) etiq.add(core.etiquetaDesdeId(eventoId, id));
-        var e = core.obtenerEventoPorId(eventoId);
-        var c = core.buscarClientePorId(clienteId);
-        double bruto = e.getPrecioBase() * ids.length;
-        double desc  = Math.round(bruto * DescuentoService.factor(c.getTipo()) * 100.0) / 100.0;
-        double neto  = Math.round((bruto - desc) * 100.0) / 100.0;
-
-        System.out.println("Resumen:");
-        System.out.println("- Evento: " + e.getNombre());
-        System.out.println("- Cliente: " + c.getNombre() + " (" + c.getTipo() + ")");
-        System.out.println("- Asientos: " + etiq + " (IDs " + Arrays.toString(ids) + ")");
-        System.out.println("- Bruto: " + bruto + "  Descuento: " + desc + "  Total: " + neto);
-
-        String conf = pedirTextoNoVacio("Confirmar venta? (S/N): ").toUpperCase(Locale.ROOT);
-        if (!conf.startsWith("S")) { System.out.println("Venta cancelada."); return; }
+    /**
+     * Carrito con asientos de varias funciones para un mismo cliente.
+     * Los asientos no se retienen: al confirmar se revalidan solo los
+     * eventos que tuvieron movimiento y se compra todo o nada.
+     */
+    private static void menuCarrito() {
+        while (true) {
+            OUT.println("\n=== CARRITO ===");
+            if (carrito == null || carrito.vacio()) {
+                OUT.println("(vacio)");
+            } else {
+                Cliente c = core.buscarClientePorId(carrito.getClienteId());
+                OUT.println("Cliente: " + (c == null ? "#" + carrito.getClienteId() : c.getNombre()));
+                for (Carrito.Linea l : carrito.getLineas()) {
+                    Evento e = core.obtenerEventoPorId(l.getEventoId());
+                    List<String> etiq = new ArrayList<>();
+                    for (int id : l.getIds()) etiq.add(core.etiquetaDesdeId(l.getEventoId(), id));
+                    OUT.println("- " + (e == null ? "Evento #" + l.getEventoId() : e.getNombre()) + " " + etiq
+                                + "  " + Dinero.formato(l.getCotizada().getNeto())
+                                + (e != null && e.getVersion() != l.getVersion() ? "  (con movimiento)" : ""));
+                }
+                OUT.println("Total: " + Dinero.formato(carrito.total()));
+            }
+            OUT.println("1) Agregar asientos de una funcion");
+            OUT.println("2) Quitar una funcion");
+            OUT.println("3) Confirmar compra");
+            OUT.println("4) Vaciar carrito");
+            OUT.println("0) Volver");
+            int op = pedirOpcion("Opcion", 0, 4);
+            if (op == 0) return;
 
-        try {
-            Venta v = core.venderEntradas(eventoId, clienteId, ids);
-            System.out.println("Venta realizada: " + v);
-            System.out.println(core.planoAscii(eventoId));
-        } catch (Exception ex) {
-            System.out.println("Error: " + ex.getMessage());
+            if (op == 1) {
+                if (carrito == null || carrito.vacio()) {
+                    Integer clienteId = elegirCliente();
+                    if (clienteId == null) continue;
+                    carrito = new Carrito(clienteId);
+                }
+                Integer eventoId = elegirEvento();
+                if (eventoId == null) continue;
+                PLANO.mostrar(core, eventoId);
+                int cantidad = pedirOpcion("Cuantos asientos desea?", 1, MAX_ASIENTOS_POR_VENTA);
+                int[] ids = elegirAsientos(eventoId, cantidad);
+                if (ids == null) continue;
+                while (true) {
+                    OUT.print("Codigo promocional (enter = ninguno): ");
+                    String promo = OUT.leerLinea().trim();
+                    try {
+                        Carrito.Linea l = core.agregarAlCarrito(carrito, eventoId, ids, promo);
+                        OUT.println("Agregado. Linea: " + l.getCotizada());
+                        break;
+                    } catch (IllegalArgumentException ex) {
+                        OUT.println("Error: " + ex.getMessage());
+                        if (!ex.getMessage().startsWith("Codigo promocional")) break;
+                    }
+                }
+            } else if (op == 2) {
+                if (carrito == null || carrito.vacio()) { OUT.println("Carrito vacio."); continue; }
+                Integer eventoId = elegirEvento();
+                if (eventoId == null) continue;
+                OUT.println(carrito.quitar(eventoId) ? "Funcion quitada." : "Esa funcion no esta en el carrito.");
+            } else if (op == 3) {
+                if (carrito == null || carrito.vacio()) { OUT.println("Carrito vacio."); continue; }
+                try {
+                    List<Venta> hechas = core.confirmarCarrito(carrito);
+                    OUT.println("Compra realizada (" + hechas.size() + " ventas, revalidadas "
+                                + carrito.getRevalidados() + "):");
+                    for (Venta v : hechas) OUT.println("  " + v);
+                } catch (IllegalArgumentException | IllegalStateException ex) {
+                    OUT.println("No se realizo ninguna venta: " + ex.getMessage());
+                }
+            } else {
+                if (carrito != null) carrito.vaciar();
+                OUT.println("Carrito vaciado.");
+            }
         }
     }
 
     /**
-     * Gestión de clientes (listar, crear, actualizar, eliminar, compactar).
+     * Gestión de clientes (listar, crear, actualizar, eliminar, compactar,
+     * nivel de socio).
      */
     private static void menuClientes() {
         while (true) {
-            System.out.println("\n-- Gestion de Clientes --");
-            System.out.println("1) Listar");
-            System.out.println("2) Agregar");
-            System.out.println("3) Actualizar");
-            System.out.println("4) Eliminar");
-            System.out.println("5) Compactar");
-            System.out.println("0) Volver");
-            int op = pedirOpcion("Opcion", 0, 5);
+            OUT.println("\n-- Gestion de Clientes --");
+            OUT.println("1) Listar");
+            OUT.println("2) Agregar");
+            OUT.println("3) Actualizar");
+            OUT.println("4) Eliminar");
+            OUT.println("5) Compactar");
+            OUT.println("6) Nivel de socio");
+            OUT.println("0) Volver");
+            int op = pedirOpcion("Opcion", 0, 6);
 
             switch (op) {
                 case 1 -> { // Listar
                     for (Cliente c : core.getClientes())
-                        if (c != null) System.out.println(c);
+                        if (c != null) OUT.println(c);
                 }
                 case 2 -> { // Agregar
                     String n = pedirTextoNoVacio("Nombre: ");
-                    System.out.println("Tipo: 1) GENERAL 2) ESTUDIANTE 3) TERCERA_EDAD");
+                    OUT.println("Tipo: 1) GENERAL 2) ESTUDIANTE 3) TERCERA_EDAD");
                     int t = pedirOpcion("Opcion", 1, 3);
                     TipoCliente tc = (t == 2) ? TipoCliente.ESTUDIANTE
                                               : (t == 3 ? TipoCliente.TERCERA_EDAD : TipoCliente.GENERAL);
-                    try { System.out.println("Creado: " + core.altaCliente(n, tc)); }
-                    catch (Exception e) { System.out.println("Error: " + e.getMessage()); }
+                    try { OUT.println("Creado: " + core.altaCliente(n, tc)); }
+                    catch (Exception e) { OUT.println("Error: " + e.getMessage()); }
                 }
                 case 3 -> { // Actualizar
                     Integer id = elegirCliente(); if (id == null) break;
                     String n = pedirTextoNoVacio("Nuevo nombre: ");
-                    System.out.println("Nuevo tipo: 1) GENERAL 2) ESTUDIANTE 3) TERCERA_EDAD 4) Sin cambio");
+                    OUT.println("Nuevo tipo: 1) GENERAL 2) ESTUDIANTE 3) TERCERA_EDAD 4) Sin cambio");
                     int t = pedirOpcion("Opcion", 1, 4);
                     TipoCliente nt = (t == 4) ? null
                                               : (t == 2 ? TipoCliente.ESTUDIANTE
                                                         : (t == 3 ? TipoCliente.TERCERA_EDAD : TipoCliente.GENERAL));
-                    System.out.println(core.actualizarCliente(id, n, nt) ? "Actualizado." : "No encontrado.");
+                    OUT.println(core.actualizarCliente(id, n, nt) ? "Actualizado." : "No encontrado.");
                 }
                 case 4 -> { // Eliminar
                     Integer id = elegirCliente(); if (id == null) break;
-                    System.out.println(core.bajaCliente(id) ? "Eliminado." : "No encontrado.");
+                    OUT.println(core.bajaCliente(id) ? "Eliminado." : "No encontrado.");
                 }
                 case 5 -> { // Compactar
                     core.compactarClientes();
-                    System.out.println("Compactado.");
+                    OUT.println("Compactado.");
+                }
+                case 6 -> { // Nivel de socio
+                    Integer id = elegirCliente(); if (id == null) break;
+                    OUT.println("Nivel: 1) NINGUNO 2) PLATA 3) ORO");
+                    NivelSocio n = NivelSocio.values()[pedirOpcion("Opcion", 1, 3) - 1];
+                    OUT.println(core.cambiarNivelSocio(id, n) ? "Actualizado." : "No encontrado.");
                 }
                 case 0 -> { return; }
             }
@@ -1104,85 +5002,1069 @@ public class MainTeatroMoro {
     }
 
     /**
-     * Gestión de eventos (listar, crear, renombrar, cambiar precio, eliminar).
+     * Gestión de eventos (listar, crear, renombrar, cambiar precio, eliminar,
+     * reglas de descuento, series de funciones, límite por cliente).
      */
     private static void menuEventos() {
         while (true) {
-            System.out.println("\n-- Gestion de Eventos --");
-            System.out.println("1) Listar");
-            System.out.println("2) Crear");
-            System.out.println("3) Renombrar");
-            System.out.println("4) Cambiar precio");
-            System.out.println("5) Eliminar (sin ventas)");
-            System.out.println("0) Volver");
-            int op = pedirOpcion("Opcion", 0, 5);
+            OUT.println("\n-- Gestion de Eventos --");
+            OUT.println("1) Listar");
+            OUT.println("2) Crear");
+            OUT.println("3) Renombrar");
+            OUT.println("4) Cambiar precio");
+            OUT.println("5) Eliminar (sin ventas)");
+            OUT.println("6) Reglas de descuento");
+            OUT.println("7) Crear serie de funciones");
+            OUT.println("8) Limite de asientos por cliente");
+            OUT.println("9) Buscar funciones con N asientos juntos");
+            OUT.println("10) Archivar funciones ya realizadas");
+            OUT.println("11) Precios dinamicos por ocupacion");
+            OUT.println("12) Zonas (Platea, Balcon, VIP...)");
+            OUT.println("0) Volver");
+            int op = pedirOpcion("Opcion", 0, 12);
 
             switch (op) {
                 case 1 -> // Listar con libres/total
                     core.getEventos().forEach(e -> {
                         int libres = core.libres(e);
-                        System.out.println(e + " [libres " + libres + "/" + e.capacidad() + "]");
+                        OUT.println(e + " [libres " + libres + "/" + e.capacidad() + "]");
                     });
 
                 case 2 -> { // Crear
                     String n = pedirTextoNoVacio("Nombre: ");
-                    int f = pedirOpcion("Filas (<= base)", 1, 26);
-                    int k = pedirOpcion("Columnas (<= base)", 1, 50);
-                    double p = pedirDouble("Precio base: ");
-                    try { System.out.println("Creado: " + core.crearEvento(n, f, k, p)); }
-                    catch (Exception e) { System.out.println("Error: " + e.getMessage()); }
+                    int f = pedirOpcion("Filas", 1, core.getBaseFilas());
+                    int k = pedirOpcion("Columnas", 1, core.getBaseColumnas());
+                    long p = Dinero.centavos(pedirDouble("Precio base: "));
+                    try { OUT.println("Creado: " + core.crearEvento(n, f, k, p)); }
+                    catch (Exception e) { OUT.println("Error: " + e.getMessage()); }
                 }
 
                 case 3 -> { // Renombrar
                     Integer id = elegirEvento(); if (id == null) break;
                     String n = pedirTextoNoVacio("Nuevo nombre: ");
-                    System.out.println(core.renombrarEvento(id, n) ? "Renombrado." : "No encontrado.");
+                    OUT.println(core.renombrarEvento(id, n) ? "Renombrado." : "No encontrado.");
                 }
 
                 case 4 -> { // Cambiar precio
                     Integer id = elegirEvento(); if (id == null) break;
-                    double p = pedirDouble("Nuevo precio: ");
-                    System.out.println(core.cambiarPrecioEvento(id, p) ? "Actualizado." : "No encontrado.");
+                    long p = Dinero.centavos(pedirDouble("Nuevo precio: "));
+                    try { OUT.println(core.cambiarPrecioEvento(id, p) ? "Actualizado." : "No encontrado."); }
+                    catch (Exception e) { OUT.println("Error: " + e.getMessage()); }
                 }
 
                 case 5 -> { // Eliminar (sin ventas)
                     Integer id = elegirEvento(); if (id == null) break;
-                    System.out.println(core.eliminarEventoSinVentas(id)
+                    OUT.println(core.eliminarEventoSinVentas(id)
                             ? "Eliminado."
                             : "No se puede eliminar (no existe o tiene ventas).");
                 }
 
+                case 6 -> menuReglas();
+
+                case 7 -> { // Serie: misma obra cada N días
+                    String n = pedirTextoNoVacio("Nombre: ");
+                    int f = pedirOpcion("Filas", 1, core.getBaseFilas());
+                    int k = pedirOpcion("Columnas", 1, core.getBaseColumnas());
+                    long p = Dinero.centavos(pedirDouble("Precio base: "));
+                    LocalDateTime primera = pedirFechaHora("Primera funcion (AAAA-MM-DD HH:MM): ");
+                    int cada = pedirOpcion("Cada cuantos dias", 1, 30);
+                    int cant = pedirOpcion("Cantidad de funciones", 1, 365);
+                    try {
+                        List<Evento> serie = core.crearSerie(n, f, k, p, primera, cada, cant);
+                        OUT.println("Creadas " + serie.size() + " funciones: IDs " + serie.get(0).getId() +
+                                    "-" + serie.get(serie.size() - 1).getId());
+                    } catch (Exception e) { OUT.println("Error: " + e.getMessage()); }
+                }
+
+                case 8 -> { // Límite general o de un evento
+                    OUT.println("Limite general actual: " + core.getLimitePorClienteGeneral() + " (0 = sin limite)");
+                    OUT.println("1) Cambiar limite general 2) Limite de un evento");
+                    int t = pedirOpcion("Opcion", 1, 2);
+                    if (t == 1) {
+                        core.setLimitePorClienteGeneral(pedirOpcion("Asientos por cliente y evento (0 = sin limite)", 0, 1000));
+                        OUT.println("Actualizado.");
+                    } else {
+                        Integer id = elegirEvento(); if (id == null) break;
+                        int l = pedirOpcion("Asientos por cliente (0 = usa el general)", 0, 1000);
+                        OUT.println(core.configurarLimiteCliente(id, l) ? "Actualizado." : "No encontrado.");
+                    }
+                }
+
+                case 9 -> { // Búsqueda en el catálogo
+                    int n = pedirOpcion("Asientos juntos", 1, MAX_ASIENTOS_POR_VENTA);
+                    long max = Dinero.centavos(pedirDouble("Precio maximo por asiento: "));
+                    int dias = pedirOpcion("Proximos dias (0 = todas, incluye sin fecha)", 0, 3650);
+                    LocalDateTime desde = dias == 0 ? null : LocalDateTime.now();
+                    LocalDateTime hasta = dias == 0 ? null : desde.plusDays(dias);
+                    var res = core.buscarDisponibilidad(desde, hasta, n, max);
+                    if (res.isEmpty()) OUT.println("Sin funciones disponibles.");
+                    for (int i = 0; i < Math.min(20, res.size()); i++) OUT.println((i + 1) + ") " + res.get(i));
+                    if (res.size() > 20) OUT.println("... y " + (res.size() - 20) + " mas.");
+                }
+
+                case 10 -> { // Archivo de funciones pasadas
+                    int n = core.archivarRealizadas(LocalDateTime.now());
+                    OUT.println("Archivadas: " + n + " (total archivadas: " + core.getArchivados().size() + ")");
+                }
+
+                case 11 -> { // Escalones de precio por ocupación
+                    Integer id = elegirEvento(); if (id == null) break;
+                    var ev = core.obtenerEventoPorId(id);
+                    OUT.println("Actual: " + (ev.getDinamicos() == null ? "precio fijo" : ev.getDinamicos()));
+                    OUT.print("Escalones ocupacion%:recargo% (ej. 50:10,75:25,90:50; vacio = precio fijo): ");
+                    String txt = OUT.leerLinea().trim();
+                    if (txt.isEmpty()) {
+                        core.configurarPreciosDinamicos(id, null);
+                        OUT.println("Precio fijo.");
+                        break;
+                    }
+                    try {
+                        String[] partes = txt.split(",");
+                        int[] umbrales = new int[partes.length], recargos = new int[partes.length];
+                        for (int i = 0; i < partes.length; i++) {
+                            String[] par = partes[i].trim().split(":");
+                            umbrales[i] = (int) Math.round(Double.parseDouble(par[0]) * 100);
+                            recargos[i] = (int) Math.round(Double.parseDouble(par[1]) * 100);
+                        }
+                        int filas = pedirOpcion("Filas premium desde la A (0 = ninguna)", 0, ev.getFilas());
+                        int recFila = filas == 0 ? 0 : (int) Math.round(pedirDouble("Recargo filas premium (%): ") * 100);
+                        core.configurarPreciosDinamicos(id, new PreciosDinamicos(umbrales, recargos, filas, recFila));
+                        OUT.println("Actualizado: " + core.obtenerEventoPorId(id));
+                    } catch (RuntimeException ex) {
+                        OUT.println("Formato invalido: " + ex.getMessage());
+                    }
+                }
+
+                case 12 -> menuZonas();
+
                 case 0 -> { return; }
             }
         }
     }
 
     /**
-     * Reporte sintetizado de un evento (ocupación, ventas, libres).
+     * Zonas de un evento: listar con libres, agregar una zona (filas
+     * "A-C" y columnas "1-12"; columnas vacías = todas) o quitarlas.
+     * En una serie se puede aplicar a todas sus funciones.
      */
-    private static void menuReportes() {
+    private static void menuZonas() {
         Integer id = elegirEvento(); if (id == null) return;
-        System.out.println(core.reporte(id));
+        while (true) {
+            var e = core.obtenerEventoPorId(id);
+            OUT.println("\n-- Zonas: " + e.getNombre() + " --");
+            OUT.println(e.getZonas() == null ? "(sin zonas: todo a precio general)" : core.resumenZonas(e));
+            OUT.println("1) Agregar zona  2) Quitar zonas  0) Volver");
+            int op = pedirOpcion("Opcion", 0, 2);
+            if (op == 0) return;
+            List<Zona> lista = new ArrayList<>();
+            if (op == 1) {
+                if (e.getZonas() != null) lista.addAll(e.getZonas().lista());
+                try {
+                    String nombre = pedirTextoNoVacio("Nombre: ");
+                    int[] filas = parseRango(pedirTextoNoVacio("Filas (ej. A-C): ").toUpperCase(Locale.ROOT), true);
+                    OUT.print("Columnas (ej. 1-12, enter = todas): ");
+                    String cols = OUT.leerLinea().trim();
+                    int[] c = cols.isEmpty() ? new int[]{0, e.getColumnas() - 1} : parseRango(cols, false);
+                    long precio = Dinero.centavos(pedirDouble("Precio: "));
+                    lista.add(new Zona(nombre, filas[0], filas[1], c[0], c[1], precio));
+                } catch (RuntimeException ex) {
+                    OUT.println("Zona invalida: " + ex.getMessage());
+                    continue;
+                }
+            }
+            boolean toda = e.getSerieId() != 0 &&
+                           pedirTextoNoVacio("Aplicar a toda la serie? (S/N): ").toUpperCase(Locale.ROOT).startsWith("S");
+            try { core.definirZonas(id, lista, toda); OUT.println("Actualizado."); }
+            catch (IllegalArgumentException ex) { OUT.println("Error: " + ex.getMessage()); }
+        }
+    }
+
+    /** Rango "A-C" (filas) o "1-12" (columnas) a índices desde 0, inclusive. */
+    private static int[] parseRango(String s, boolean filas) {
+        String[] t = s.split("-");
+        Check.require(t.length <= 2, "Rango invalido: " + s);
+        int[] r = new int[2];
+        for (int i = 0; i < 2; i++) {
+            String x = t[Math.min(i, t.length - 1)].trim();
+            if (filas) {
+                r[i] = PlanoEvento.indiceFila(x.toUpperCase(Locale.ROOT));
+                Check.require(r[i] >= 0, "Fila invalida: " + x);
+            } else {
+                r[i] = Integer.parseInt(x) - 1;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Reglas de descuento: listar, agregar (promo, grupo, preventa,
+     * socio, tipo de cliente) y quitar. Los cambios recompilan las
+     * tablas de precios de los eventos en la siguiente cotización.
+     */
+    private static void menuReglas() {
+        MotorDescuentos m = core.getMotor();
+        while (true) {
+            OUT.println("\n-- Reglas de descuento --");
+            OUT.println("1) Listar");
+            OUT.println("2) Agregar");
+            OUT.println("3) Quitar");
+            OUT.println("0) Volver");
+            int op = pedirOpcion("Opcion", 0, 3);
+
+            switch (op) {
+                case 1 -> {
+                    List<ReglaDescuento> rs = m.getReglas();
+                    if (rs.isEmpty()) OUT.println("(sin reglas)");
+                    for (int i = 0; i < rs.size(); i++) OUT.println((i + 1) + ") " + rs.get(i));
+                }
+                case 2 -> {
+                    OUT.println("Tipo: 1) Codigo promo 2) Grupo 3) Preventa 4) Socio 5) Tipo cliente");
+                    int t = pedirOpcion("Opcion", 1, 5);
+                    int pb = (int) Math.round(pedirDouble("Descuento (%): ") * 100.0);
+                    try {
+                        ReglaDescuento r = switch (t) {
+                            case 1 -> ReglaDescuento.promo(pedirTextoNoVacio("Codigo: "), pb);
+                            case 2 -> ReglaDescuento.grupo(
+                                    pedirOpcion("Minimo de asientos", 2, MAX_ASIENTOS_POR_VENTA), pb);
+                            case 3 -> {
+                                int dias = pedirOpcion("Vigencia desde hoy (dias)", 1, 365);
+                                LocalDateTime hoy = LocalDateTime.now();
+                                yield ReglaDescuento.preventa(hoy, hoy.plusDays(dias), pb);
+                            }
+                            case 4 -> ReglaDescuento.socio(
+                                    NivelSocio.values()[pedirOpcion("Nivel 1) PLATA 2) ORO", 1, 2)], pb);
+                            default -> ReglaDescuento.porTipo(
+                                    TipoCliente.values()[pedirOpcion("Tipo 1) GENERAL 2) ESTUDIANTE 3) TERCERA_EDAD", 1, 3) - 1], pb);
+                        };
+                        Integer ev = pedirIntCancelable("Solo para evento ID (enter = todos)");
+                        if (ev != null) r.soloEvento(ev);
+                        m.agregar(r);
+                        OUT.println("Agregada: " + r);
+                    } catch (Exception e) { OUT.println("Error: " + e.getMessage()); }
+                }
+                case 3 -> {
+                    Integer i = pedirIntCancelable("Numero de regla");
+                    if (i == null) break;
+                    OUT.println(m.quitar(i - 1) ? "Quitada." : "No encontrada.");
+                }
+                case 0 -> { return; }
+            }
+        }
+    }
+
+    /**
+     * Reportes:
+     *   1) Evento (ocupación, ventas, libres) y recaudación de temporada
+     *   2) Compras de un cliente
+     *   3) Ventas entre dos horas
+     */
+    private static void menuReportes() {
+        OUT.println("\n-- Reportes --");
+        OUT.println("1) Reporte de evento");
+        OUT.println("2) Compras por cliente");
+        OUT.println("3) Ventas entre fechas/horas");
+        OUT.println("4) Funciones archivadas");
+        OUT.println("0) Volver");
+        int op = pedirOpcion("Opcion", 0, 4);
+        switch (op) {
+            case 1 -> {
+                Integer id = elegirEvento(); if (id == null) return;
+                OUT.println(core.reporte(id));
+                OUT.println("Recaudacion temporada: " + Dinero.formato(core.recaudacionTemporada()));
+            }
+            case 2 -> {
+                Integer cli = pedirIntCancelable("ID de cliente");
+                if (cli == null) return;
+                imprimirVentas(core.ventasDeCliente(cli));
+            }
+            case 3 -> {
+                LocalDateTime desde = pedirFechaHora("Desde (AAAA-MM-DD HH:MM, o HH:MM de hoy): ");
+                LocalDateTime hasta = pedirFechaHora("Hasta (AAAA-MM-DD HH:MM, o HH:MM de hoy): ");
+                imprimirVentas(core.ventasEntre(desde, hasta));
+            }
+            case 4 -> {
+                if (core.getArchivados().isEmpty()) OUT.println("(sin funciones archivadas)");
+                for (EventoArchivado a : core.getArchivados()) OUT.println(a);
+            }
+            default -> { }
+        }
+    }
+
+    /** Lista ventas con etiquetas de asiento y total neto. */
+    private static void imprimirVentas(List<Venta> vs) {
+        if (vs.isEmpty()) { OUT.println("(sin ventas)"); return; }
+        long total = 0;
+        for (Venta v : vs) {
+            List<String> etiq = new ArrayList<>();
+            for (int id : v.getAsientosIds()) etiq.add(core.etiquetaDesdeId(v.getEventoId(), id));
+            OUT.println("Venta " + v.getId() + " | evento " + v.getEventoId() + " | cliente " + v.getClienteId() +
+                        " | " + v.getFecha().withNano(0) + " | " + etiq + " | " + Dinero.formato(v.getNeto()));
+            total += v.getNeto();
+        }
+        OUT.println(vs.size() + " venta(s), total " + Dinero.formato(total));
+    }
+
+    /**
+     * Pruebas rápidas:
+     *   1) Venta de prueba (IDs 1,2,3) con plano y reporte
+     *   2) Estrés de inventario compartido con varias JVM
+     *   3) Estrés concurrente del núcleo (hilos)
+     *   4) Idempotencia de ventas (reintento, reuso de clave, vencimiento)
+     *   5) Verificaciones de módulos (ver {@link #verificaciones})
+     */
+    private static void pruebasRapidas() {
+        OUT.println("\n-- Pruebas rapidas --");
+        OUT.println("1) Venta de prueba (IDs 1,2,3)");
+        OUT.println("2) Estres inventario compartido (varias JVM)");
+        OUT.println("3) Estres concurrente del nucleo (hilos)");
+        OUT.println("4) Idempotencia de ventas (clave de solicitud)");
+        OUT.println("5) Verificaciones de modulos");
+        OUT.println("0) Volver");
+        int op = pedirOpcion("Opcion", 0, 5);
+        if (op == 1) ventaDePrueba();
+        else if (op == 4) pruebaIdempotencia();
+        else if (op == 5) verificaciones();
+        else if (op == 3) {
+            int hilos = pedirOpcion("Hilos", 2, 32);
+            int seg = pedirOpcion("Duracion (segundos)", 1, 30);
+            OUT.println("Ejecutando...");
+            OUT.flush();
+            OUT.println(EstresConcurrente.ejecutar(hilos, seg * 1000L, System.nanoTime()));
+        }
+        else if (op == 2) {
+            int procesos = pedirOpcion("Procesos", 2, 8);
+            int ops = pedirOpcion("Operaciones por proceso", 10, 5000);
+            OUT.println("Ejecutando...");
+            OUT.flush();
+            try {
+                Path tmp = Files.createTempFile("teatro-inv", ".bin");
+                Files.delete(tmp);
+                OUT.println(EstresMultiproceso.ejecutar(tmp, procesos, ops));
+                Files.deleteIfExists(tmp);
+            } catch (Exception e) { OUT.println("Error: " + e.getMessage()); }
+        }
     }
 
     /**
-     * Prueba rápida:
+     * Venta de prueba:
      *  - Pide un evento
      *  - Toma el primer cliente
      *  - Intenta vender IDs {1,2,3}
      *  - Muestra plano y reporte
      */
-    private static void pruebasRapidas() {
+    private static void ventaDePrueba() {
         Integer id = elegirEvento(); if (id == null) return;
         Integer cli = null;
         for (Cliente c : core.getClientes()) if (c != null) { cli = c.getId(); break; }
-        if (cli == null) { System.out.println("Sin clientes."); return; }
+        if (cli == null) { OUT.println("Sin clientes."); return; }
 
         try { core.venderEntradas(id, cli, new int[]{1, 2, 3}); }
-        catch (Exception e) { System.out.println("Prueba: " + e.getMessage()); }
+        catch (Exception e) { OUT.println("Prueba: " + e.getMessage()); }
 
-        System.out.println(core.planoAscii(id));
-        System.out.println(core.reporte(id));
+        PLANO.mostrar(core, id);
+        OUT.println(core.reporte(id));
     }
-}
 
+
+    /**
+     * Idempotencia sobre un núcleo aparte (no toca los datos reales):
+     *  - el reintento con la misma clave (asientos en otro orden)
+     *    devuelve la venta original sin vender de nuevo,
+     *  - reusar la clave para otra compra se rechaza,
+     *  - la clave vence a su TTL y la caché respeta su capacidad
+     *    (con reloj simulado, sin esperar).
+     */
+    private static void pruebaIdempotencia() {
+        TeatroMoroCore c = new TeatroMoroCore(2, 4, 6, 8, 100_000);
+        int cli = c.altaCliente("Prueba", TipoCliente.GENERAL).getId();
+        List<String> fallas = new ArrayList<>();
+
+        Venta v1 = c.venderEntradas(1, cli, new int[]{3, 1, 2}, null, "k-1");
+        Venta v2 = c.venderEntradas(1, cli, new int[]{1, 2, 3}, null, "k-1");
+        if (v2 != v1) fallas.add("El reintento creo otra venta (" + v2.getId() + ")");
+        if (c.ocupados(c.obtenerEventoPorId(1)) != 3) fallas.add("El reintento volvio a ocupar asientos");
+        try {
+            c.venderEntradas(1, cli, new int[]{4}, null, "k-1");
+            fallas.add("Se acepto la clave para otra compra");
+        } catch (IllegalArgumentException esperado) {
+            // reuso rechazado
+        }
+
+        CacheIdempotencia cache = new CacheIdempotencia(2, 1_000);
+        cache.recordar("a", v1, 0);
+        if (cache.buscar("a", 999_999_999L) != v1) fallas.add("La clave vencio antes del TTL");
+        if (cache.buscar("a", 1_000_000_000L) != null) fallas.add("La clave sigue vigente despues del TTL");
+        cache.recordar("a", v1, 0);
+        cache.recordar("b", v1, 0);
+        cache.recordar("c", v1, 0);
+        if (cache.tamano() != 2 || cache.buscar("a", 0) != null) fallas.add("La cache supero su capacidad");
+
+        OUT.println(fallas.isEmpty() ? "Idempotencia: OK (reintento, reuso, vencimiento, capacidad)."
+                                     : "Idempotencia: FALLAS\n  " + String.join("\n  ", fallas));
+    }
+
+    /**
+     * Verificaciones de comportamiento, cada una sobre estructuras o
+     * núcleos aparte (no tocan los datos reales). Cada verificación
+     * devuelve sus fallas; lista vacía = OK.
+     *  - Índices de ventas: orden temporal y compactación de lápidas.
+     *  - Topes por cliente: MapaLargoInt contra un HashMap y tope entre ventas.
+     *  - Ubicación de grupos: una fila centrada, bloque en filas adyacentes y sin lugar.
+     *  - Feed de asientos: lector atrasado y lector concurrente al que le dan la vuelta.
+     *  - Archivo: consultas de ventas, reporte y recaudación de funciones archivadas.
+     *  - Escalones de precio: cambio exacto en cada umbral y cotización igual a lo cobrado.
+     *  - Carrito: si falla una línea posterior no queda rastro de ninguna.
+     */
+    private static void verificaciones() {
+        Map<String, List<String>> res = new LinkedHashMap<>();
+        res.put("Indices de ventas", verificarIndices());
+        res.put("Topes por cliente", verificarTopes());
+        res.put("Ubicacion de grupos", verificarGrupos());
+        res.put("Feed de asientos", verificarFeed());
+        res.put("Archivo de funciones", verificarArchivo());
+        res.put("Escalones de precio", verificarPrecios());
+        res.put("Carrito todo o nada", verificarCarrito());
+        for (Map.Entry<String, List<String>> r : res.entrySet())
+            OUT.println(r.getKey() + ": " + (r.getValue().isEmpty() ? "OK"
+                        : "FALLAS\n  " + String.join("\n  ", r.getValue())));
+    }
+
+    /**
+     * Índice temporal con altas fuera de orden y bajas: al pasar la
+     * mitad de lápidas se compacta y las búsquedas siguen coincidiendo.
+     */
+    private static List<String> verificarIndices() {
+        List<String> fallas = new ArrayList<>();
+        IndiceVentas ix = new IndiceVentas();
+        LocalDateTime t0 = LocalDateTime.of(2025, 1, 1, 20, 0);
+        Venta[] vs = new Venta[10];
+        for (int i = 0; i < vs.length; i++) {   // llegan de la más nueva a la más vieja
+            vs[i] = new Venta(i + 1, 1, 1 + i % 2, new int[]{i + 1}, t0.plusMinutes(10 - i), 100, 0, 100);
+            ix.agregar(vs[i], i);
+        }
+        List<Venta> todas = ix.entre(t0, t0.plusHours(1));
+        if (todas.size() != 10 || todas.get(0) != vs[9] || todas.get(9) != vs[0])
+            fallas.add("Orden temporal incorrecto con altas desordenadas");
+
+        for (int i = 0; i < 5; i++) ix.quitar(vs[i]);
+        if (ix.lapidas != 5 || ix.nTiempo != 10) fallas.add("Compacto antes de superar la mitad de lapidas");
+        ix.quitar(vs[5]);
+        if (ix.lapidas != 0 || ix.nTiempo != 4) fallas.add("Lapidas sin compactar: " + ix.nTiempo + " entradas");
+        if (ix.quitar(vs[5]) != -1) fallas.add("Una baja repetida no devolvio -1");
+
+        if (!ix.entre(t0, t0.plusHours(1)).equals(List.of(vs[9], vs[8], vs[7], vs[6])))
+            fallas.add("Rango por fecha incorrecto tras compactar");
+        if (!ix.entre(t0.plusMinutes(2), t0.plusMinutes(4)).equals(List.of(vs[8], vs[7])))
+            fallas.add("Rango [desde, hasta) mal acotado");
+        if (ix.porId(3) != null || ix.porId(8) != vs[7]) fallas.add("Indice por ID incorrecto tras bajas");
+        if (!ix.deCliente(1).equals(List.of(vs[6], vs[8])) || !ix.deCliente(2).equals(List.of(vs[7], vs[9])))
+            fallas.add("Indice por cliente incorrecto tras bajas");
+        return fallas;
+    }
+
+    /**
+     * MapaLargoInt con altas y bajas al azar (carga alta, crecimiento y
+     * borrado por desplazamiento en medio de grupos) comparado con un
+     * HashMap; luego el tope por cliente acumulado entre ventas y bajas.
+     */
+    private static List<String> verificarTopes() {
+        List<String> fallas = new ArrayList<>();
+        MapaLargoInt mapa = new MapaLargoInt();
+        Map<Long, Integer> modelo = new HashMap<>();
+        Random rnd = new Random(34);
+        for (int op = 0; op < 50_000 && fallas.isEmpty(); op++) {
+            long k = MapaLargoInt.clave(1 + rnd.nextInt(4), rnd.nextInt(150));
+            int delta = rnd.nextInt(3) - 1;
+            mapa.sumar(k, delta);
+            modelo.merge(k, delta, Integer::sum);
+            modelo.remove(k, 0);
+            if (mapa.get(k) != modelo.getOrDefault(k, 0)) fallas.add("Valor distinto tras la operacion " + op);
+        }
+        for (Map.Entry<Long, Integer> en : modelo.entrySet())
+            if (mapa.get(en.getKey()) != en.getValue()) { fallas.add("Clave perdida tras borrados: " + en.getKey()); break; }
+        if (mapa.tamano() != modelo.size()) fallas.add("Tamano " + mapa.tamano() + ", esperado " + modelo.size());
+
+        TeatroMoroCore c = new TeatroMoroCore(2, 4, 6, 8, 100_000);
+        int cli = c.altaCliente("Prueba", TipoCliente.GENERAL).getId();
+        c.configurarLimiteCliente(1, 4);
+        Venta v = c.venderEntradas(1, cli, new int[]{1, 2, 3});
+        try {
+            c.venderEntradas(1, cli, new int[]{4, 5});
+            fallas.add("Se supero el tope sumando dos ventas");
+        } catch (IllegalArgumentException esperado) {
+            // 3 + 2 > 4
+        }
+        c.venderEntradas(1, cli, new int[]{4});
+        c.eliminarVenta(v.getId());
+        if (c.asientosDeCliente(1, cli) != 1) fallas.add("La baja no desconto los asientos del cliente");
+        c.venderEntradas(1, cli, new int[]{5, 6, 7});
+        if (c.asientosDeCliente(1, cli) != 4) fallas.add("Contador por cliente incorrecto");
+        return fallas;
+    }
+
+    /**
+     * Ubicador de grupos en una sala 4x6: con lugar, una sola fila
+     * centrada; con cada fila cortada en la columna 3, un bloque de
+     * filas adyacentes con asientos libres y contiguos; sin bloque
+     * posible, null.
+     */
+    private static List<String> verificarGrupos() {
+        List<String> fallas = new ArrayList<>();
+        TeatroMoroCore c = new TeatroMoroCore(2, 4, 6, 8, 100_000);
+        int cli = c.altaCliente("Prueba", TipoCliente.GENERAL).getId();
+        Evento e = c.obtenerEventoPorId(1);
+
+        UbicadorGrupos.Ubicacion u = UbicadorGrupos.ubicar(e, 4);
+        if (u == null || u.getFilas() != 1 || !Arrays.equals(u.getIds(), new int[]{2, 3, 4, 5}))
+            fallas.add("Con lugar no eligio una fila centrada: " + u);
+
+        c.venderEntradas(1, cli, new int[]{3, 9, 15, 21});     // columna 3 de cada fila
+        u = UbicadorGrupos.ubicar(e, 6);
+        if (u == null || u.getFilas() < 2) {
+            fallas.add("No armo un bloque en filas adyacentes: " + u);
+        } else {
+            PlanoEvento p = e.getPlano();
+            int[] ids = u.getIds();
+            int f0 = p.fila(ids[0]);
+            Set<Integer> vistos = new HashSet<>();
+            for (int i = 0; i < ids.length; i++) {
+                if (e.ocupado(ids[i]) || !vistos.add(ids[i])) fallas.add("Asiento ocupado o repetido: " + ids[i]);
+                if (p.fila(ids[i]) - f0 >= u.getFilas()) fallas.add("Fila fuera del bloque: " + ids[i]);
+                if (i > 0 && p.fila(ids[i]) == p.fila(ids[i - 1]) && ids[i] != ids[i - 1] + 1)
+                    fallas.add("Asientos no contiguos en la fila: " + ids[i - 1] + ", " + ids[i]);
+            }
+            if (ids.length != 6) fallas.add("Bloque de " + ids.length + " asientos");
+        }
+
+        Evento unaFila = c.crearEvento("Una fila", 1, 6, 100_000);
+        c.venderEntradas(unaFila.getId(), cli, new int[]{3});
+        if (UbicadorGrupos.ubicar(unaFila, 4) != null) fallas.add("Ubico 4 juntos en una fila cortada");
+        return fallas;
+    }
+
+    /**
+     * Dos funciones pasadas con ventas se archivan junto a un evento
+     * vigente: búsqueda por ID, compras por cliente, rango por fecha,
+     * reporte y recaudación de temporada siguen viendo lo archivado,
+     * y la función archivada ya no admite ventas ni anulaciones.
+     */
+    private static List<String> verificarArchivo() {
+        List<String> fallas = new ArrayList<>();
+        TeatroMoroCore c = new TeatroMoroCore(2, 4, 6, 8, 100_000);
+        int a = c.altaCliente("A", TipoCliente.GENERAL).getId();
+        int b = c.altaCliente("B", TipoCliente.GENERAL).getId();
+        LocalDateTime inicio = LocalDateTime.now().minusMinutes(1);
+        List<Evento> serie = c.crearSerie("Pasada", 4, 6, 100_000, LocalDateTime.now().minusDays(3), 1, 2);
+        int e1 = serie.get(0).getId(), e2 = serie.get(1).getId();
+        Venta v1 = c.venderEntradas(e1, a, new int[]{1, 2});
+        Venta v2 = c.venderEntradas(e2, b, new int[]{7});
+        Venta v3 = c.venderEntradas(1, a, new int[]{3});
+        long temporada = c.recaudacionTemporada();
+
+        if (c.archivarRealizadas(LocalDateTime.now()) != 2) fallas.add("No archivo las dos funciones pasadas");
+        if (c.obtenerEventoPorId(e1) != null || c.obtenerArchivado(e1) == null)
+            fallas.add("La funcion archivada sigue entre los eventos vigentes");
+
+        Venta r1 = c.buscarVentaPorId(v1.getId());
+        if (r1 == null || r1.getEventoId() != e1 || r1.getNeto() != v1.getNeto()
+            || !Arrays.equals(r1.getAsientosIds(), v1.getAsientosIds()))
+            fallas.add("Busqueda por ID de una venta archivada: " + r1);
+        if (c.buscarVentaPorId(v3.getId()) != v3) fallas.add("Busqueda por ID de una venta vigente");
+
+        List<Integer> deA = new ArrayList<>();
+        for (Venta v : c.ventasDeCliente(a)) deA.add(v.getId());
+        if (!deA.equals(List.of(v1.getId(), v3.getId()))) fallas.add("Compras del cliente A: " + deA);
+
+        List<Integer> rango = new ArrayList<>();
+        for (Venta v : c.ventasEntre(inicio, LocalDateTime.now().plusMinutes(1))) rango.add(v.getId());
+        if (rango.size() != 3 || !rango.containsAll(List.of(v1.getId(), v2.getId(), v3.getId())))
+            fallas.add("Rango por fecha con archivadas: " + rango);
+
+        String rep = c.reporte(e2);
+        if (!rep.startsWith("Evento (archivado)") || !rep.contains("Vendidos: 1/24"))
+            fallas.add("Reporte de funcion archivada: " + rep);
+        if (c.recaudacionTemporada() != temporada) fallas.add("La recaudacion de temporada cambio al archivar");
+
+        try {
+            c.venderEntradas(e1, b, new int[]{9});
+            fallas.add("Vendio en una funcion archivada");
+        } catch (RuntimeException esperado) {
+            // sin evento vigente
+        }
+        if (c.eliminarVenta(v2.getId())) fallas.add("Anulo una venta archivada");
+        if (c.archivarEvento(e1)) fallas.add("Archivo dos veces la misma funcion");
+        return fallas;
+    }
+
+    /**
+     * Sala de 100 con escalones 50/75/90%: vendiendo de a un asiento, la
+     * cotización cambia exactamente al alcanzar cada umbral y la venta
+     * cobra lo cotizado. Luego, en una sala de 10, una cotización vieja
+     * que quedó de un lado del umbral se rechaza en vez de cobrar otro monto.
+     */
+    private static List<String> verificarPrecios() {
+        List<String> fallas = new ArrayList<>();
+        TeatroMoroCore c = new TeatroMoroCore(2, 4, 25, 8, 100_000);
+        Cliente cli = c.altaCliente("Prueba", TipoCliente.GENERAL);
+        PreciosDinamicos d = new PreciosDinamicos(new int[]{5000, 7500, 9000}, new int[]{1000, 2500, 5000}, 0, 0);
+        Evento e = c.crearEvento("Escalones", 4, 25, 100_000);
+        c.configurarPreciosDinamicos(e.getId(), d);
+        for (int k = 0; k < 100; k++) {
+            long esperado = k < 50 ? 100_000 : k < 75 ? 110_000 : k < 90 ? 125_000 : 150_000;
+            int[] ids = {k + 1};
+            Cotizacion q = c.cotizar(e, cli, ids, null);
+            if (q.getBruto() != esperado) {
+                fallas.add("Con " + k + " ocupados cotizo " + Dinero.formato(q.getBruto()) +
+                           " en vez de " + Dinero.formato(esperado));
+                break;
+            }
+            Venta v = c.venderEntradas(e.getId(), cli.getId(), ids, null, null, q);
+            if (v.getBruto() != q.getBruto() || v.getNeto() != q.getNeto()) {
+                fallas.add("Con " + k + " ocupados cobro " + Dinero.formato(v.getNeto()) +
+                           " y se cotizo " + Dinero.formato(q.getNeto()));
+                break;
+            }
+        }
+
+        Evento chica = c.crearEvento("Chica", 2, 5, 100_000);
+        c.configurarPreciosDinamicos(chica.getId(), d);
+        c.venderEntradas(chica.getId(), cli.getId(), new int[]{1, 2, 3, 4});
+        Cotizacion vieja = c.cotizar(chica, cli, new int[]{5}, null);
+        c.venderEntradas(chica.getId(), cli.getId(), new int[]{6});          // 5 de 10: cruza el 50%
+        try {
+            c.venderEntradas(chica.getId(), cli.getId(), new int[]{5}, null, null, vieja);
+            fallas.add("Cobro una cotizacion de antes del umbral");
+        } catch (IllegalStateException esperado) {
+            // el cliente debe reconfirmar el nuevo monto
+        }
+        if (chica.ocupado(5)) fallas.add("La venta rechazada dejo el asiento ocupado");
+        Cotizacion nueva = c.cotizar(chica, cli, new int[]{5}, null);
+        if (nueva.getBruto() != 110_000) fallas.add("Tras el umbral cotizo " + Dinero.formato(nueva.getBruto()));
+        else if (c.venderEntradas(chica.getId(), cli.getId(), new int[]{5}, null, null, nueva).getNeto() != nueva.getNeto())
+            fallas.add("La reconfirmacion cobro otro monto");
+        return fallas;
+    }
+
+    /**
+     * Carrito de dos eventos cuya segunda línea falla: primero porque
+     * otra venta local tomó uno de sus asientos (revalidación), luego
+     * porque otra caja lo tomó en el inventario compartido (archivo
+     * temporal). En ambos casos no quedan ventas, ocupación, recaudación,
+     * historial, mapa de calor ni reservas de la primera línea, y el tope
+     * por cliente sigue permitiendo comprar exactamente lo suyo.
+     */
+    private static List<String> verificarCarrito() {
+        List<String> fallas = new ArrayList<>();
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile("teatro-carrito", ".bin");
+            Files.delete(tmp);
+            InventarioCompartido inv = InventarioCompartido.abrir(tmp, 8, 24);
+            TeatroMoroCore c = new TeatroMoroCore(2, 4, 6, 8, 100_000);
+            TeatroMoroCore otra = new TeatroMoroCore(2, 4, 6, 8, 100_000);
+            c.usarInventario(inv);
+            otra.usarInventario(InventarioCompartido.abrir(tmp, 8, 24));
+            Evento e2 = c.crearEvento("Segunda", 4, 6, 100_000);
+            otra.crearEvento("Segunda", 4, 6, 100_000);
+            int cli = c.altaCliente("Prueba", TipoCliente.GENERAL).getId();
+            int tercero = c.altaCliente("Otro", TipoCliente.GENERAL).getId();
+            int otroCli = otra.altaCliente("Otra caja", TipoCliente.GENERAL).getId();
+            c.setLimitePorClienteGeneral(2);
+
+            String antes = estadoCarrito(c, e2, cli);
+            Carrito k = new Carrito(cli);
+            c.agregarAlCarrito(k, 1, new int[]{1, 2}, null);
+            c.agregarAlCarrito(k, e2.getId(), new int[]{5, 6}, null);
+            Venta ajena = c.venderEntradas(e2.getId(), tercero, new int[]{6});
+            try {
+                c.confirmarCarrito(k);
+                fallas.add("Confirmo un carrito con un asiento ya vendido");
+            } catch (RuntimeException esperado) {
+                // la segunda línea se revalida y falla
+            }
+            c.eliminarVenta(ajena.getId());
+            String despues = estadoCarrito(c, e2, cli);
+            if (!despues.equals(antes)) fallas.add("Rastro tras fallar la revalidacion: " + antes + " -> " + despues);
+
+            k = new Carrito(cli);
+            c.agregarAlCarrito(k, 1, new int[]{1, 2}, null);
+            c.agregarAlCarrito(k, e2.getId(), new int[]{7, 8}, null);
+            otra.venderEntradas(e2.getId(), otroCli, new int[]{8});
+            try {
+                c.confirmarCarrito(k);
+                fallas.add("Confirmo un carrito con un asiento vendido en otra caja");
+            } catch (RuntimeException esperado) {
+                // la segunda línea no se reserva en el inventario
+            }
+            despues = estadoCarrito(c, e2, cli);
+            if (!despues.equals(antes)) fallas.add("Rastro tras fallar el inventario: " + antes + " -> " + despues);
+            if (inv.ocupado(1, 1) || inv.ocupado(1, 2) || inv.ocupado(e2.getId(), 7))
+                fallas.add("Quedaron reservas de la primera linea en el inventario");
+
+            k = new Carrito(cli);
+            c.agregarAlCarrito(k, 1, new int[]{1, 2}, null);
+            c.agregarAlCarrito(k, e2.getId(), new int[]{5, 6}, null);
+            if (c.confirmarCarrito(k).size() != 2) fallas.add("El carrito valido no creo dos ventas");
+        } catch (Exception ex) {
+            fallas.add("Error inesperado: " + ex);
+        } finally {
+            try { if (tmp != null) Files.deleteIfExists(tmp); } catch (IOException ignorada) { /* temporal */ }
+        }
+        return fallas;
+    }
+
+    /** Huella de lo que una compra deja: ventas, ocupación, recaudación, historial y mapa de calor. */
+    private static String estadoCarrito(TeatroMoroCore c, Evento e2, int cli) {
+        Evento e1 = c.obtenerEventoPorId(1);
+        LocalDateTime ahora = LocalDateTime.now();
+        return c.ventasDeCliente(cli).size() + " ventas, ocupados " + e1.getOcupados() + "+" + e2.getOcupados() +
+               ", historial " + c.estadoEn(1, ahora).getOcupados() + "+" + c.estadoEn(e2.getId(), ahora).getOcupados() +
+               ", recaudado " + c.recaudacionTemporada() + ", calor " + c.planoCalor().hashCode();
+    }
+
+    /**
+     * Feed chico (8 y 16 registros): un lector atrasado más que la
+     * capacidad salta a lo más viejo vigente e informa los perdidos; con
+     * un escritor que da vueltas al buffer mientras otro hilo lee, cada
+     * registro leído coincide con su secuencia (nunca uno a medio pisar)
+     * y leídos + perdidos cubren exactamente el avance del cursor.
+     */
+    private static List<String> verificarFeed() {
+        List<String> fallas = new ArrayList<>();
+        FeedAsientos feed = new FeedAsientos(8);
+        FeedAsientos.Suscripcion s = feed.suscribir();
+        feed.publicar(1, new int[]{1, 2, 3, 4, 5}, FeedAsientos.VENDIDO);
+        FeedAsientos.Lectura l = s.leer(100);
+        if (l.getCambios().size() != 5 || l.getPerdidos() != 0 || l.getCambios().get(4).getAsientoId() != 5)
+            fallas.add("Lectura al dia incorrecta");
+        for (int i = 0; i < 20; i++) feed.publicar(1, new int[]{10 + i}, FeedAsientos.LIBRE);
+        l = s.leer(100);
+        if (l.getPerdidos() != 12 || l.getCambios().size() != 8 || l.getCambios().get(0).getSeq() != 17)
+            fallas.add("Lector atrasado: perdidos " + l.getPerdidos() + ", leidos " + l.getCambios().size());
+
+        FeedAsientos chico = new FeedAsientos(16);
+        final int total = 200_000;
+        Thread escritor = new Thread(() -> {
+            for (int k = 0; k < total; k++)
+                chico.publicar(1 + k % 1000, new int[]{1 + k % 50_000}, k % 3);
+        }, "verificacion-feed");
+        FeedAsientos.Suscripcion lector = chico.suscribir();
+        long leidos = 0, perdidos = 0, ultima = -1;
+        escritor.start();
+        while (lector.getSiguiente() < total && fallas.size() < 5) {
+            FeedAsientos.Lectura x = lector.leer(7);
+            perdidos += x.getPerdidos();
+            for (FeedAsientos.Cambio ca : x.getCambios()) {
+                long k = ca.getSeq();
+                if (k <= ultima) fallas.add("Secuencia no creciente: " + k);
+                if (ca.getEventoId() != 1 + k % 1000 || ca.getAsientoId() != 1 + k % 50_000 || ca.getEstado() != k % 3)
+                    fallas.add("Registro mezclado en la secuencia " + k + ": " + ca);
+                ultima = k;
+                leidos++;
+            }
+        }
+        try { escritor.join(); } catch (InterruptedException ex) { Thread.currentThread().interrupt(); }
+        if (leidos + perdidos != lector.getSiguiente())
+            fallas.add("Leidos + perdidos = " + (leidos + perdidos) + ", cursor en " + lector.getSiguiente());
+        return fallas;
+    }
+
+
+    /* ================== PRUEBAS DE CARGA ================== */
+
+    /**
+     * Estrés del inventario compartido con varias JVM en el mismo equipo.
+     * Lanza N procesos trabajadores que venden y anulan al azar sobre el
+     * evento 1, más uno que muere con una reserva abierta. Al final
+     * verifica que ningún asiento quedó vendido por dos procesos, que no
+     * quedan reservas huérfanas y que el archivo coincide con lo vendido.
+     */
+    static class EstresMultiproceso {
+        static final String ARG_TRABAJADOR = "--trabajador-inventario";
+        private static final int FILAS = 8, COLUMNAS = 12;
+
+        static String ejecutar(Path ruta, int procesos, int operaciones) throws Exception {
+            String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            String cp = System.getProperty("java.class.path");
+            List<Process> ps = new ArrayList<>();
+            long t0 = System.nanoTime();
+            try (InventarioCompartido inv = InventarioCompartido.abrir(ruta, MAX_EVENTOS_INVENTARIO, FILAS * COLUMNAS)) {
+                for (int i = 0; i <= procesos; i++) {
+                    String modo = (i == procesos) ? "caida" : "normal";
+                    ps.add(new ProcessBuilder(java, "-cp", cp, MainTeatroMoro.class.getName(), ARG_TRABAJADOR,
+                                              ruta.toString(), modo, String.valueOf(operaciones), String.valueOf(i))
+                            .redirectErrorStream(true).start());
+                }
+                Map<Integer, Integer> duenos = new HashMap<>();
+                int vivos = 0, ok = 0, fallos = 0;
+                List<String> errores = new ArrayList<>();
+                for (int i = 0; i < ps.size(); i++) {
+                    String salida = new String(ps.get(i).getInputStream().readAllBytes());
+                    ps.get(i).waitFor();
+                    for (String linea : salida.split("\\R")) {
+                        String[] t = linea.trim().split(" ");
+                        if (t[0].equals("VIVOS")) {
+                            for (int k = 1; k < t.length; k++) {
+                                int id = Integer.parseInt(t[k]);
+                                Integer otro = duenos.put(id, i);
+                                if (otro != null) errores.add("Asiento " + id + " vendido por procesos " + otro + " y " + i);
+                                vivos++;
+                            }
+                        } else if (t[0].equals("RESUMEN")) {
+                            ok += Integer.parseInt(t[1]);
+                            fallos += Integer.parseInt(t[2]);
+                        } else if (t[0].equals("ERROR")) {
+                            errores.add("Proceso " + i + ": " + linea);
+                        }
+                    }
+                }
+                double seg = (System.nanoTime() - t0) / 1e9;
+                int recuperados = inv.recuperar();
+                int ocupados = inv.ocupacion(1).cardinality(), vendidos = inv.vendidos(1);
+                if (ocupados != vendidos) errores.add("Reservas huerfanas: " + (ocupados - vendidos));
+                if (vendidos != vivos) errores.add("Archivo: " + vendidos + " vendidos, procesos: " + vivos);
+                return "Procesos: " + procesos + " (+1 con caida) | Ventas OK: " + ok + " | Rechazos: " + fallos +
+                       String.format(" | %.1f ops/s", (ok + fallos) / seg) +
+                       "\nAsientos vendidos: " + vendidos + " | Slots recuperados al final: " + recuperados +
+                       "\n" + (errores.isEmpty() ? "Sin violaciones." : "VIOLACIONES:\n" + String.join("\n", errores));
+            } finally {
+                for (Process p : ps) p.destroyForcibly();
+            }
+        }
+
+        /** Proceso trabajador: args = marca, ruta, modo, operaciones, semilla. */
+        static void trabajador(String[] args) throws Exception {
+            Path ruta = Path.of(args[1]);
+            String modo = args[2];
+            int ops = Integer.parseInt(args[3]);
+            Random rnd = new Random(Long.parseLong(args[4]) * 7919L + System.nanoTime());
+            InventarioCompartido inv = InventarioCompartido.abrir(ruta, MAX_EVENTOS_INVENTARIO, FILAS * COLUMNAS);
+
+            if (modo.equals("caida")) {
+                // Reserva sin confirmar y muere: los demás deben deshacerla
+                for (int i = 0; i < 100; i++) {
+                    int a = 1 + rnd.nextInt(FILAS * COLUMNAS - 1);
+                    if (inv.reservar(1, new int[]{a, a + 1}) != null) break;
+                }
+                Runtime.getRuntime().halt(3);
+            }
+
+            TeatroMoroCore c = new TeatroMoroCore(4, FILAS, COLUMNAS, 64, 500_000);
+            c.usarInventario(inv);
+            int cli = c.altaCliente("Estres", TipoCliente.GENERAL).getId();
+            List<Venta> propias = new ArrayList<>();
+            int ok = 0, fallos = 0;
+            for (int i = 0; i < ops; i++) {
+                if (!propias.isEmpty() && rnd.nextInt(10) < 3) {
+                    c.eliminarVenta(propias.remove(rnd.nextInt(propias.size())).getId());
+                    continue;
+                }
+                int n = 1 + rnd.nextInt(3), a = 1 + rnd.nextInt(FILAS * COLUMNAS - n + 1);
+                int[] ids = new int[n];
+                for (int k = 0; k < n; k++) ids[k] = a + k;
+                try { propias.add(c.venderEntradas(1, cli, ids)); ok++; }
+                catch (IllegalArgumentException ex) { fallos++; }
+                catch (Exception ex) { System.out.println("ERROR " + ex); }
+            }
+            StringBuilder sb = new StringBuilder("VIVOS");
+            for (Venta v : propias) for (int id : v.getAsientosIds()) sb.append(' ').append(id);
+            System.out.println(sb);
+            System.out.println("RESUMEN " + ok + " " + fallos);
+            inv.close();
+        }
+    }
+
+    /**
+     * Estrés concurrente del núcleo en una sola JVM: varios hilos venden,
+     * anulan (también ventas ajenas) y leen ocupados/libres al azar sobre
+     * un {@link TeatroMoroCore} durante un tiempo fijo. Cada operación se
+     * anota con su intervalo real [inicio, fin] y al terminar se revisa
+     * la historia:
+     *   - ningún asiento con dos ventas vigentes a la vez (la anulación de
+     *     la primera debe haber empezado antes de que termine la segunda),
+     *   - ninguna venta anulada con éxito dos veces,
+     *   - cada lectura (ocupados y libres, pedidos al núcleo sin tomar su
+     *     monitor desde afuera) cae entre lo mínimo y lo máximo que la
+     *     historia permite en ese intervalo (muestra de lecturas, para
+     *     acotar el costo),
+     *   - al final, el estado del núcleo coincide con las ventas vivas.
+     */
+    static class EstresConcurrente {
+        private static final int FILAS = 8, COLUMNAS = 12, EVENTOS = 3;
+        private static final int MUESTRA_LECTURAS = 1000, MAX_REPORTADAS = 20;
+
+        /** Una operación de la historia (V = venta, A = anulación, L = lectura). */
+        private static class Op {
+            final char tipo;
+            final long ini, fin;
+            final int evento, venta;
+            final int[] ids;
+            final boolean ok;
+            final int ocupados, libres;
+
+            Op(char tipo, long ini, long fin, int evento, int venta, int[] ids, boolean ok, int ocupados, int libres) {
+                this.tipo = tipo;
+                this.ini = ini;
+                this.fin = fin;
+                this.evento = evento;
+                this.venta = venta;
+                this.ids = ids;
+                this.ok = ok;
+                this.ocupados = ocupados;
+                this.libres = libres;
+            }
+        }
+
+        static String ejecutar(int hilos, long milis, long semilla) {
+            TeatroMoroCore core = new TeatroMoroCore(hilos, FILAS, COLUMNAS, 64, 500_000);
+            for (int i = 1; i < EVENTOS; i++) core.crearEvento("Estres " + i, FILAS, COLUMNAS, 500_000);
+            int[] clientes = new int[hilos];
+            for (int i = 0; i < hilos; i++) clientes[i] = core.altaCliente("Hilo " + i, TipoCliente.GENERAL).getId();
+
+            AtomicInteger mayorVenta = new AtomicInteger();
+            List<List<Op>> historias = new ArrayList<>();
+            List<Thread> ts = new ArrayList<>();
+            long fin = System.nanoTime() + milis * 1_000_000L;
+            for (int h = 0; h < hilos; h++) {
+                List<Op> hist = new ArrayList<>();
+                historias.add(hist);
+                Random rnd = new Random(semilla * 31 + h);
+                int cli = clientes[h];
+                Thread t = new Thread(() -> {
+                    while (System.nanoTime() < fin) hist.add(operar(core, cli, rnd, mayorVenta));
+                }, "estres-" + h);
+                ts.add(t);
+            }
+            long t0 = System.nanoTime();
+            for (Thread t : ts) t.start();
+            for (Thread t : ts) {
+                try { t.join(); }
+                catch (InterruptedException ex) { Thread.currentThread().interrupt(); return "Interrumpido."; }
+            }
+            double seg = (System.nanoTime() - t0) / 1e9;
+
+            List<Op> todas = new ArrayList<>();
+            for (List<Op> h : historias) todas.addAll(h);
+            List<String> errores = verificar(core, todas, semilla);
+
+            int[] cuenta = new int[3], exito = new int[3];
+            for (Op o : todas) {
+                int k = o.tipo == 'V' ? 0 : o.tipo == 'A' ? 1 : 2;
+                cuenta[k]++;
+                if (o.ok) exito[k]++;
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append("Hilos: ").append(hilos).append(" | Operaciones: ").append(todas.size())
+              .append(String.format(" | %.0f ops/s", todas.size() / seg)).append("\n");
+            sb.append("Ventas: ").append(exito[0]).append("/").append(cuenta[0])
+              .append(" | Anulaciones: ").append(exito[1]).append("/").append(cuenta[1])
+              .append(" | Lecturas: ").append(cuenta[2]).append("\n");
+            if (errores.isEmpty()) sb.append("Sin violaciones.");
+            else {
+                sb.append("VIOLACIONES (").append(errores.size()).append("):\n");
+                sb.append(String.join("\n", errores.subList(0, Math.min(MAX_REPORTADAS, errores.size()))));
+            }
+            return sb.toString();
+        }
+
+        /** Una operación al azar: 50% venta, 25% anulación, 25% lectura. */
+        private static Op operar(TeatroMoroCore core, int cli, Random rnd, AtomicInteger mayorVenta) {
+            int ev = 1 + rnd.nextInt(EVENTOS), dado = rnd.nextInt(4);
+            if (dado < 2) {
+                int n = 1 + rnd.nextInt(3), a = 1 + rnd.nextInt(FILAS * COLUMNAS - n + 1);
+                int[] ids = new int[n];
+                for (int k = 0; k < n; k++) ids[k] = a + k;
+                long ini = System.nanoTime();
+                try {
+                    Venta v = core.venderEntradas(ev, cli, ids);
+                    long f = System.nanoTime();
+                    mayorVenta.accumulateAndGet(v.getId(), Math::max);
+                    return new Op('V', ini, f, ev, v.getId(), ids, true, 0, 0);
+                } catch (IllegalArgumentException ex) {
+                    return new Op('V', ini, System.nanoTime(), ev, 0, ids, false, 0, 0);
+                }
+            }
+            if (dado == 2) {
+                int id = Math.max(1, mayorVenta.get() - rnd.nextInt(128));   // ventas recientes: suelen estar vivas
+                long ini = System.nanoTime();
+                boolean ok = core.eliminarVenta(id);
+                return new Op('A', ini, System.nanoTime(), 0, id, null, ok, 0, 0);
+            }
+            Evento e = core.obtenerEventoPorId(ev);
+            long ini = System.nanoTime();
+            int o, l;
+            o = core.ocupados(e);                // cada lectura por separado: el núcleo se sincroniza solo
+            l = core.libres(e);
+            return new Op('L', ini, System.nanoTime(), ev, 0, null, true, o, l);
+        }
+
+        /** Revisa la historia completa; devuelve las violaciones encontradas. */
+        private static List<String> verificar(TeatroMoroCore core, List<Op> ops, long semilla) {
+            List<String> err = new ArrayList<>();
+            Map<Integer, Op> ventas = new HashMap<>(), anulaciones = new HashMap<>();
+            List<Op> lecturas = new ArrayList<>();
+            for (Op o : ops) {
+                if (!o.ok) continue;
+                if (o.tipo == 'V') ventas.put(o.venta, o);
+                else if (o.tipo == 'A' && anulaciones.put(o.venta, o) != null)
+                    err.add("Venta " + o.venta + " anulada dos veces");
+                else if (o.tipo == 'L') lecturas.add(o);
+            }
+            for (Integer id : anulaciones.keySet())
+                if (!ventas.containsKey(id)) err.add("Anulada la venta " + id + " que nadie vendio");
+
+            // Asiento vendido dos veces: por (evento, asiento), ventas en orden de ID
+            // (el ID se asigna dentro del monitor: es el orden en que se linealizaron)
+            Map<Long, List<Op>> porAsiento = new HashMap<>();
+            for (Op v : ventas.values())
+                for (int id : v.ids)
+                    porAsiento.computeIfAbsent(MapaLargoInt.clave(v.evento, id), k -> new ArrayList<>()).add(v);
+            for (Map.Entry<Long, List<Op>> en : porAsiento.entrySet()) {
+                List<Op> vs = en.getValue();
+                vs.sort(Comparator.comparingInt(x -> x.venta));
+                for (int i = 0; i + 1 < vs.size(); i++) {
+                    Op a = vs.get(i), b = vs.get(i + 1);
+                    Op anul = anulaciones.get(a.venta);
+                    if (anul == null || anul.ini > b.fin)
+                        err.add("Asiento " + (en.getKey() & 0xFFFF_FFFFL) + " del evento " + (en.getKey() >>> 32) +
+                                " vendido en " + a.venta + " y " + b.venta + " a la vez");
+                }
+            }
+
+            // Lecturas: ocupados dentro de lo que permite la historia en [ini, fin]
+            Collections.shuffle(lecturas, new Random(semilla));
+            int total = FILAS * COLUMNAS;
+            for (Op r : lecturas.subList(0, Math.min(MUESTRA_LECTURAS, lecturas.size()))) {
+                int min = 0, max = 0;
+                for (Op v : ventas.values()) {
+                    if (v.evento != r.evento || v.ini > r.fin) continue;
+                    Op anul = anulaciones.get(v.venta);
+                    if (anul != null && anul.fin < r.ini) continue;
+                    max += v.ids.length;                                        // pudo estar vigente
+                    if (v.fin < r.ini && (anul == null || anul.ini > r.fin)) min += v.ids.length;   // seguro vigente
+                }
+                if (r.ocupados < min || r.ocupados > max)
+                    err.add("Lectura de evento " + r.evento + ": ocupados " + r.ocupados + " fuera de [" + min + ", " + max + "]");
+                if (total - r.libres < min || total - r.libres > max)
+                    err.add("Lectura de evento " + r.evento + ": libres " + r.libres + " fuera de [" +
+                            (total - max) + ", " + (total - min) + "]");
+            }
+
+            // Estado final (sin concurrencia): núcleo == ventas vivas de la historia
+            int[] vivos = new int[EVENTOS + 1];
+            for (Op v : ventas.values()) {
+                boolean viva = !anulaciones.containsKey(v.venta);
+                if (viva) vivos[v.evento] += v.ids.length;
+                if (viva != (core.buscarVentaPorId(v.venta) != null))
+                    err.add("Venta " + v.venta + (viva ? " viva en la historia pero ausente" : " anulada pero presente"));
+            }
+            for (int ev = 1; ev <= EVENTOS; ev++) {
+                Evento e = core.obtenerEventoPorId(ev);
+                if (core.ocupados(e) != vivos[ev] || core.libres(e) != total - vivos[ev])
+                    err.add("Evento " + ev + ": ocupados " + core.ocupados(e) + ", historia " + vivos[ev]);
+                if (!Check.invariante(e)) err.add("Evento " + ev + ": invariante de ocupacion rota");
+            }
+            return err;
+        }
+    }
+}